@@ -0,0 +1,60 @@
+package com.example.completablefuture;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Futures.allAsList() against the usual allOf(toArray) followed by a join() per element, at 10, 1k and 100k inputs.
+//Each invocation creates fresh incomplete inputs, wires up the combinator, then completes the inputs in order, so the
+// score covers registration, completion and collecting the results, plus the inputs from IncompleteFutures.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllAsListBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  int size;
+
+  @Benchmark
+  public List<CompletableFuture<String>> newInputs() {
+    return IncompleteFutures.newList(size);
+  }
+
+  @Benchmark
+  public List<String> allAsList() {
+    List<CompletableFuture<String>> futures = IncompleteFutures.newList(size);
+    CompletableFuture<List<String>> all = Futures.allAsList(futures);
+    completeInputs(futures);
+    return all.join();
+  }
+
+  @Benchmark
+  public List<String> allOfJoin() {
+    List<CompletableFuture<String>> futures = IncompleteFutures.newList(size);
+    CompletableFuture<List<String>> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    completeInputs(futures);
+    return all.join();
+  }
+
+  private static void completeInputs(List<CompletableFuture<String>> futures) {
+    for (CompletableFuture<String> cf : futures) {
+      cf.complete("message");
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+//What a closed CircuitBreaker adds to a call, against making the call directly; without slow-call tracking the
+// difference should stay under 100 ns for completed and pending calls alike.
+//The completed* pair calls a backend whose future is already complete, which the breaker records inline. The pending*
+// pair is the usual case of a call still running when it returns: the breaker records it from a whenComplete callback
+// when the benchmark completes the future afterwards. pendingContended runs that from 4 threads at once, sharing the
+// window's cursor and counters; it needs as many cores to show the contention, and on fewer the threads only take
+// turns, multiplying the score.
+//With slow-call tracking on, two System.nanoTime() calls are most of that cost, which varies a lot between machines
+// (it is several times dearer on some virtualized clocks).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitBreakerBenchmark {
+
+  private static final CompletableFuture<String> COMPLETED = CompletableFuture.completedFuture("MESSAGE");
+
+  //A slow-call rate threshold above 1 turns slow-call tracking off.
+  @Param({"0.5", "2"})
+  double slowCallRateThreshold;
+
+  private CircuitBreaker breaker;
+
+  @Setup
+  public void setUp() {
+    breaker = new CircuitBreaker(100, 0.5, 1, slowCallRateThreshold, 1, TimeUnit.SECONDS, 5);
+  }
+
+  @Benchmark
+  public CompletableFuture<String> completedDirect() {
+    return backend();
+  }
+
+  @Benchmark
+  public CompletableFuture<String> completedClosedBreaker() {
+    return breaker.call(CircuitBreakerBenchmark::backend);
+  }
+
+  @Benchmark
+  public CompletableFuture<String> pendingDirect() {
+    CompletableFuture<String> cf = new CompletableFuture<>();
+    cf.complete("MESSAGE");
+    return cf;
+  }
+
+  @Benchmark
+  public CompletableFuture<String> pendingClosedBreaker() {
+    CompletableFuture<String> cf = breaker.call(CompletableFuture::new);
+    cf.complete("MESSAGE");
+    return cf;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public CompletableFuture<String> pendingContended() {
+    return pendingClosedBreaker();
+  }
+
+  private static CompletableFuture<String> backend() {
+    return COMPLETED.thenApply(s -> s);
+  }
+}
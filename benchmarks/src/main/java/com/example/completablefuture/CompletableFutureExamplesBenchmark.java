@@ -0,0 +1,172 @@
+package com.example.completablefuture;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//One benchmark per pipeline in CompletableFutureExamples, with the sync and Async variants side by side.
+//With delay=sleep the stages keep the randomSleep() latency of the examples; with delay=cpu it is replaced by
+// Blackhole.consumeCPU(cpuTokens), which leaves the per-stage overhead of the pipeline itself visible.
+//The Async variants run on a StageExecutor of the given mode (common, forkjoin, fixed, virtual) with the given threads.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletableFutureExamplesBenchmark {
+
+  @Param({"cpu", "sleep"})
+  String delay;
+
+  @Param({"1000"})
+  long cpuTokens;
+
+  @Param({"common"})
+  String executor;
+
+  @Param({"4"})
+  int threads;
+
+  private Runnable previousDelay;
+
+  private StageExecutor stageExecutor;
+
+  @Setup
+  public void setUp() {
+    previousDelay = CompletableFutureExamples.delay;
+    if ("cpu".equals(delay)) {
+      long tokens = cpuTokens;
+      CompletableFutureExamples.delay = () -> Blackhole.consumeCPU(tokens);
+    }
+    stageExecutor = StageExecutor.create(executor, threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    CompletableFutureExamples.delay = previousDelay;
+    stageExecutor.shutdown();
+  }
+
+  @Benchmark
+  public String completedFuture() {
+    return CompletableFuture.completedFuture("message").getNow(null);
+  }
+
+  @Benchmark
+  public void runAsync() {
+    CompletableFuture.runAsync(CompletableFutureExamples.delay, stageExecutor).join();
+  }
+
+  @Benchmark
+  public String thenApply() {
+    return CompletableFuture.completedFuture("message").thenApply(String::toUpperCase).getNow(null);
+  }
+
+  @Benchmark
+  public String thenApplyAsync() {
+    return CompletableFuture.completedFuture("message").thenApplyAsync(s -> {
+      CompletableFutureExamples.delay.run();
+      return s.toUpperCase();
+    }, stageExecutor).join();
+  }
+
+  @Benchmark
+  public String applyToEither() {
+    String original = "Message";
+    return CompletableFuture.completedFuture(original)
+        .thenApplyAsync(CompletableFutureExamples::delayedUpperCase, stageExecutor)
+        .applyToEither(
+            CompletableFuture.completedFuture(original).thenApplyAsync(CompletableFutureExamples::delayedLowerCase, stageExecutor),
+            s -> s + " from applyToEither")
+        .join();
+  }
+
+  @Benchmark
+  public void thenAcceptBoth(Blackhole bh) {
+    String original = "Message";
+    CompletableFuture.completedFuture(original).thenApply(String::toUpperCase).thenAcceptBoth(
+        CompletableFuture.completedFuture(original).thenApply(String::toLowerCase),
+        (s1, s2) -> bh.consume(s1 + s2));
+  }
+
+  @Benchmark
+  public void thenAcceptBothAsync(Blackhole bh) {
+    String original = "Message";
+    CompletableFuture.completedFuture(original).thenApplyAsync(String::toUpperCase, stageExecutor).thenAcceptBothAsync(
+        CompletableFuture.completedFuture(original).thenApplyAsync(String::toLowerCase, stageExecutor),
+        (s1, s2) -> bh.consume(s1 + s2), stageExecutor).join();
+  }
+
+  @Benchmark
+  public String thenCombine() {
+    String original = "Message";
+    return CompletableFuture.completedFuture(original).thenApply(CompletableFutureExamples::delayedUpperCase)
+        .thenCombine(CompletableFuture.completedFuture(original).thenApply(CompletableFutureExamples::delayedLowerCase),
+            (s1, s2) -> s1 + s2)
+        .getNow(null);
+  }
+
+  @Benchmark
+  public String thenCombineAsync() {
+    String original = "Message";
+    return CompletableFuture.completedFuture(original)
+        .thenApplyAsync(CompletableFutureExamples::delayedUpperCase, stageExecutor)
+        .thenCombineAsync(
+            CompletableFuture.completedFuture(original).thenApplyAsync(CompletableFutureExamples::delayedLowerCase, stageExecutor),
+            (s1, s2) -> s1 + s2, stageExecutor)
+        .join();
+  }
+
+  @Benchmark
+  public String thenCompose() {
+    String original = "Message";
+    return CompletableFuture.completedFuture(original).thenApply(CompletableFutureExamples::delayedUpperCase)
+        .thenCompose(upper -> CompletableFuture.completedFuture(original)
+            .thenApply(CompletableFutureExamples::delayedLowerCase)
+            .thenApply(s -> upper + s))
+        .join();
+  }
+
+  @Benchmark
+  public String thenComposeAsync() {
+    String original = "Message";
+    return CompletableFuture.completedFuture(original).thenApplyAsync(CompletableFutureExamples::delayedUpperCase, stageExecutor)
+        .thenComposeAsync(upper -> CompletableFuture.completedFuture(original)
+            .thenApplyAsync(CompletableFutureExamples::delayedLowerCase, stageExecutor)
+            .thenApply(s -> upper + s), stageExecutor)
+        .join();
+  }
+
+  @Benchmark
+  public Object anyOf() {
+    List<CompletableFuture<String>> futures = Arrays.asList("a", "b", "c").stream()
+        .map(msg -> CompletableFuture.completedFuture(msg).thenApply(CompletableFutureExamples::delayedUpperCase))
+        .collect(Collectors.toList());
+    return CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+  }
+
+  @Benchmark
+  public Object anyOfAsync() {
+    List<CompletableFuture<String>> futures = Arrays.asList("a", "b", "c").stream()
+        .map(msg -> CompletableFuture.completedFuture(msg).thenApplyAsync(CompletableFutureExamples::delayedUpperCase, stageExecutor))
+        .collect(Collectors.toList());
+    return CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+  }
+}
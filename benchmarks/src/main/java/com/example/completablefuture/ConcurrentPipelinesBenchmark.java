@@ -0,0 +1,75 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Completion throughput of 10k concurrent delayedUpperCase -> delayedLowerCase pipelines whose stages block in
+// Thread.sleep, on the common pool versus one virtual thread per stage. The score is pipelines completed per second.
+//The sleeps are shortened to maxSleepMillis so the common pool runs finish in a reasonable time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ConcurrentPipelinesBenchmark.PIPELINES)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentPipelinesBenchmark {
+
+  static final int PIPELINES = 10_000;
+
+  @Param({"common", "virtual"})
+  String executor;
+
+  @Param({"10"})
+  int maxSleepMillis;
+
+  private Runnable previousDelay;
+
+  private StageExecutor stageExecutor;
+
+  @Setup
+  public void setUp() {
+    previousDelay = CompletableFutureExamples.delay;
+    int bound = maxSleepMillis;
+    CompletableFutureExamples.delay = () -> {
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(bound));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    stageExecutor = StageExecutor.create(executor, Runtime.getRuntime().availableProcessors());
+  }
+
+  @TearDown
+  public void tearDown() {
+    CompletableFutureExamples.delay = previousDelay;
+    stageExecutor.shutdown();
+  }
+
+  @Benchmark
+  public void pipelines() {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[PIPELINES];
+    for (int i = 0; i < PIPELINES; i++) {
+      futures[i] = CompletableFuture.completedFuture("Message")
+          .thenApplyAsync(CompletableFutureExamples::delayedUpperCase, stageExecutor)
+          .thenApplyAsync(CompletableFutureExamples::delayedLowerCase, stageExecutor);
+    }
+    CompletableFuture.allOf(futures).join();
+  }
+}
@@ -0,0 +1,68 @@
+package com.example.completablefuture;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Futures.firstOf() against CompletableFuture.anyOf() over large input lists. Each invocation takes fresh inputs from
+// IncompleteFutures, wires the combinator up on them and then completes the one in the middle.
+//firstOf() also cancels the losers, one exceptional completion each, which anyOf() leaves to the caller;
+// anyOfCancelLosers does that by hand, for the like-for-like comparison.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FirstOfBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  int size;
+
+  @Benchmark
+  public List<CompletableFuture<String>> newInputs() {
+    return IncompleteFutures.newList(size);
+  }
+
+  @Benchmark
+  public String firstOf() {
+    List<CompletableFuture<String>> futures = IncompleteFutures.newList(size);
+    CompletableFuture<String> first = Futures.firstOf(futures);
+    futures.get(size / 2).complete("message");
+    return first.join();
+  }
+
+  @Benchmark
+  public String anyOf() {
+    List<CompletableFuture<String>> futures = IncompleteFutures.newList(size);
+    CompletableFuture<Object> first = CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[0]));
+    futures.get(size / 2).complete("message");
+    return (String) first.join();
+  }
+
+  @Benchmark
+  public String anyOfCancelLosers() {
+    List<CompletableFuture<String>> futures = IncompleteFutures.newList(size);
+    CompletableFuture<Object> first = CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[0]))
+        .whenComplete((v, th) -> {
+          CancellationException lost = new CancellationException("Another input completed first");
+          for (CompletableFuture<String> cf : futures) {
+            cf.completeExceptionally(lost);
+          }
+        });
+    futures.get(size / 2).complete("message");
+    return (String) first.join();
+  }
+}
@@ -0,0 +1,79 @@
+package com.example.completablefuture;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//Throughput of 10k items through a CPU-bound thenApplyAsync stage: pulled through Flows with a given prefetch, against
+// the unbounded loop that submits every item at once and waits for all of them.
+//The unbounded loop is the upper bound on throughput; what the bridge buys for the difference is that at most prefetch
+// items are ever queued on the executor.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowBenchmark {
+
+  private static final int ITEMS = 10_000;
+
+  @Param({"1", "16", "256"})
+  int prefetch;
+
+  @Param({"100"})
+  int cpuTokens;
+
+  private StageExecutor executor;
+
+  @Setup
+  public void setUp() {
+    executor = StageExecutor.forkJoinPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITEMS)
+  public List<Integer> flow() {
+    Flow.Publisher<Integer> source = Flows.publisher(() -> IntStream.range(0, ITEMS).boxed());
+    Flow.Processor<Integer, Integer> stage = Flows.thenApplyAsync(this::work, executor, prefetch);
+    source.subscribe(stage);
+    return Flows.toList(stage, prefetch).join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITEMS)
+  public List<Integer> unboundedSubmit() {
+    List<CompletableFuture<Integer>> futures = IntStream.range(0, ITEMS)
+        .mapToObj(i -> CompletableFuture.supplyAsync(() -> work(i), executor))
+        .collect(Collectors.toList());
+    return Futures.allAsList(futures).join();
+  }
+
+  private Integer work(Integer i) {
+    Blackhole.consumeCPU(cpuTokens);
+    return i;
+  }
+}
@@ -0,0 +1,82 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Latency distribution of delayedUpperCase with injected tail latency, called directly and through a Hedger.
+//The delay is 1 ms, except for tailPercent of the calls that take tailMillis. Compare the p0.99 lines of the two runs.
+//Attempts run on virtual threads so that the sleeping losers of a hedge never hold up the next call.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HedgingBenchmark {
+
+  @Param({"false", "true"})
+  boolean hedged;
+
+  @Param({"5"})
+  int tailPercent;
+
+  @Param({"50"})
+  int tailMillis;
+
+  @Param({"95"})
+  double hedgePercentile;
+
+  private Runnable previousDelay;
+
+  private StageExecutor stageExecutor;
+
+  private Hedger hedger;
+
+  @Setup
+  public void setUp() {
+    previousDelay = CompletableFutureExamples.delay;
+    int percent = tailPercent;
+    int tail = tailMillis;
+    CompletableFutureExamples.delay = () -> {
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(100) < percent ? tail : 1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    stageExecutor = StageExecutor.virtualThreadPerTask();
+    hedger = new Hedger(hedgePercentile, 10, TimeUnit.MILLISECONDS, stageExecutor);
+  }
+
+  @TearDown
+  public void tearDown() {
+    CompletableFutureExamples.delay = previousDelay;
+    stageExecutor.shutdown();
+  }
+
+  @Benchmark
+  public String delayedUpperCase() {
+    if (hedged) {
+      return hedger.call("upper", this::attempt).join();
+    }
+    return attempt().join();
+  }
+
+  private CompletableFuture<String> attempt() {
+    return CompletableFuture.supplyAsync(() -> CompletableFutureExamples.delayedUpperCase("message"), stageExecutor);
+  }
+}
@@ -0,0 +1,22 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+//Fresh incomplete inputs for the fan-in benchmarks, created inside each measured method: a Level.Invocation setup would
+// time every call on its own, which is below the timer's resolution at 10 inputs. Each of those benchmarks has a
+// newInputs score of its own; subtract it to leave the inputs out.
+final class IncompleteFutures {
+
+  private IncompleteFutures() {
+  }
+
+  static List<CompletableFuture<String>> newList(int size) {
+    List<CompletableFuture<String>> futures = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      futures.add(new CompletableFuture<>());
+    }
+    return futures;
+  }
+}
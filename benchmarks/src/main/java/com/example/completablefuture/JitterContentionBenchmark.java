@@ -0,0 +1,48 @@
+package com.example.completablefuture;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+//64 threads drawing delays at once: the static java.util.Random that randomSleep() used to share, against the
+// per-thread Jitter implementations that replaced it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(64)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JitterContentionBenchmark {
+
+  private final Random sharedRandom = new Random();
+
+  private final Jitter threadLocal = LatencyModel.uniform(0, 1000, TimeUnit.MILLISECONDS);
+
+  private final Jitter seeded = Jitter.seeded(42, 1000, TimeUnit.MILLISECONDS);
+
+  @Benchmark
+  public long sharedRandom() {
+    return TimeUnit.MILLISECONDS.toNanos(sharedRandom.nextInt(1000));
+  }
+
+  @Benchmark
+  public long threadLocalRandom() {
+    return threadLocal.nextDelayNanos();
+  }
+
+  @Benchmark
+  public long splittableRandom() {
+    return seeded.nextDelayNanos();
+  }
+}
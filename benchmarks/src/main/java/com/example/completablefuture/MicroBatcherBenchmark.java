@@ -0,0 +1,82 @@
+package com.example.completablefuture;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//Throughput against per-call latency of MicroBatcher at several batch windows, with 16 callers each waiting for its own
+// result, as request threads in a service would.
+//The backend costs callTokens per call plus itemTokens per item, on a pool of its own. unbatched makes one call per
+// item; the batched runs trade up to a window of added latency per item for paying callTokens once per batch. With a
+// maxBatchSize of 16 a batch fills as soon as every caller is waiting; at 64 every batch waits out its window.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class MicroBatcherBenchmark {
+
+  @Param({"50", "200", "1000"})
+  long windowMicros;
+
+  @Param({"16", "64"})
+  int maxBatchSize;
+
+  @Param({"20000"})
+  int callTokens;
+
+  @Param({"50"})
+  int itemTokens;
+
+  private StageExecutor backend;
+  private MicroBatcher<String, String> batcher;
+
+  @Setup
+  public void setUp() {
+    backend = StageExecutor.forkJoinPool(Runtime.getRuntime().availableProcessors());
+    batcher = new MicroBatcher<>(this::batchCall, maxBatchSize, windowMicros, TimeUnit.MICROSECONDS, backend);
+  }
+
+  @TearDown
+  public void tearDown() {
+    backend.shutdown();
+  }
+
+  @Benchmark
+  public String batched() {
+    return batcher.submit("message").join();
+  }
+
+  @Benchmark
+  public String unbatched() {
+    return CompletableFuture.supplyAsync(() -> {
+      Blackhole.consumeCPU(callTokens + itemTokens);
+      return "MESSAGE";
+    }, backend).join();
+  }
+
+  private CompletableFuture<List<String>> batchCall(List<String> items) {
+    return CompletableFuture.supplyAsync(() -> {
+      Blackhole.consumeCPU(callTokens + (long) itemTokens * items.size());
+      return items.stream().map(String::toUpperCase).collect(Collectors.toList());
+    }, backend);
+  }
+}
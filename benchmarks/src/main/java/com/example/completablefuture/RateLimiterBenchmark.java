@@ -0,0 +1,53 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Permit throughput of RateLimiter with 32 concurrent acquirers, all on its one AtomicLong.
+//At a rate no one can reach, tryAcquire and acquire measure the compareAndSet under contention. At a reachable rate,
+// acquire should settle at the configured rate, with the surplus callers waiting on the shared timer, while tryAcquire
+// turns the surplus away.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class RateLimiterBenchmark {
+
+  @Param({"100000", "1000000000"})
+  double permitsPerSecond;
+
+  @Param({"100"})
+  int burst;
+
+  private RateLimiter limiter;
+
+  @Setup
+  public void setUp() {
+    limiter = new RateLimiter(permitsPerSecond, burst);
+  }
+
+  @Benchmark
+  public Void acquire() {
+    return limiter.acquire().join();
+  }
+
+  @Benchmark
+  public boolean tryAcquire() {
+    return limiter.tryAcquire();
+  }
+}
@@ -0,0 +1,95 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Retry overhead and budget behaviour against a backend that fails failurePercent of its calls, from 8 callers.
+//The backend answers immediately, so the scores show what the retry machinery and its 10-100 us timer waits cost. The
+// attempts, succeeded and failed counters show the budget at work: at a ratio of 0.1 the extra attempts stay near a
+// tenth of the calls and some failures get through, while at 1.0 nearly every failure is retried away.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RetryBenchmark {
+
+  @Param({"30"})
+  int failurePercent;
+
+  @Param({"0.1", "1.0"})
+  double budgetRatio;
+
+  private Retry retry;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Outcomes {
+
+    public long attempts;
+    public long succeeded;
+    public long failed;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      attempts = 0;
+      succeeded = 0;
+      failed = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    retry = new Retry(3, 10, 100, TimeUnit.MICROSECONDS, budgetRatio, 10, th -> th instanceof IllegalStateException);
+  }
+
+  @Benchmark
+  public String noRetry(Outcomes outcomes) {
+    return outcome(outcomes, backend(outcomes));
+  }
+
+  @Benchmark
+  public String retried(Outcomes outcomes) {
+    return outcome(outcomes, retry.call(() -> backend(outcomes)));
+  }
+
+  //Retried attempts run on the common pool, but the caller is waiting in join() meanwhile and the completion of the
+  // result orders their counter updates before its own.
+  private CompletableFuture<String> backend(Outcomes outcomes) {
+    outcomes.attempts++;
+    if (ThreadLocalRandom.current().nextInt(100) < failurePercent) {
+      return CompletableFuture.failedFuture(new IllegalStateException("injected failure"));
+    }
+    return CompletableFuture.completedFuture("MESSAGE");
+  }
+
+  private static String outcome(Outcomes outcomes, CompletableFuture<String> cf) {
+    try {
+      String result = cf.join();
+      outcomes.succeeded++;
+      return result;
+    } catch (CompletionException e) {
+      outcomes.failed++;
+      return null;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.example.completablefuture;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Calls saved by SingleFlight when 32 callers request keys drawn from a Zipfian distribution, as real caches see them.
+//Each backend call takes backendMicros on the shared timer. The backendCalls and requests counters in the results give
+// the fraction of requests that reached the backend; direct is the baseline where every request does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class SingleFlightBenchmark {
+
+  @Param({"1000"})
+  int keys;
+
+  @Param({"0.99"})
+  double skew;
+
+  @Param({"500"})
+  long backendMicros;
+
+  private double[] cumulative;
+  private SingleFlight<Integer, String> singleFlight;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Calls {
+
+    public long requests;
+    public long backendCalls;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      requests = 0;
+      backendCalls = 0;
+    }
+  }
+
+  //The cumulative Zipf distribution over the keys, for inverse transform sampling.
+  @Setup
+  public void setUp() {
+    cumulative = new double[keys];
+    double total = 0;
+    for (int k = 0; k < keys; k++) {
+      total += 1 / Math.pow(k + 1, skew);
+      cumulative[k] = total;
+    }
+    for (int k = 0; k < keys; k++) {
+      cumulative[k] /= total;
+    }
+    singleFlight = new SingleFlight<>();
+  }
+
+  @Benchmark
+  public String singleFlight(Calls calls) {
+    calls.requests++;
+    return singleFlight.call(nextKey(), key -> {
+      calls.backendCalls++;
+      return backend(key);
+    }).join();
+  }
+
+  @Benchmark
+  public String direct(Calls calls) {
+    calls.requests++;
+    calls.backendCalls++;
+    return backend(nextKey()).join();
+  }
+
+  private CompletableFuture<String> backend(int key) {
+    return SharedTimer.delay(backendMicros, TimeUnit.MICROSECONDS).thenApply(v -> "VALUE" + key);
+  }
+
+  private int nextKey() {
+    int k = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+    return k < 0 ? Math.min(-k - 1, keys - 1) : k;
+  }
+}
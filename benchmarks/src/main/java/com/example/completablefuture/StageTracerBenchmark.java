@@ -0,0 +1,54 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//What StageTracer costs on a chain of ten synchronous thenApply stages: plain CompletableFuture, a disabled tracer,
+// which should be indistinguishable from plain, and an enabled one, given a fresh tracer per chain as the examples do.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageTracerBenchmark {
+
+  private static final int STAGES = 10;
+
+  @Benchmark
+  public String plain() {
+    CompletableFuture<String> cf = CompletableFuture.completedFuture("message");
+    for (int i = 0; i < STAGES; i++) {
+      cf = cf.thenApply(String::toUpperCase);
+    }
+    return cf.join();
+  }
+
+  @Benchmark
+  public String disabled() {
+    return chain(StageTracer.disabled());
+  }
+
+  @Benchmark
+  public String enabled() {
+    return chain(StageTracer.enabled());
+  }
+
+  private static String chain(StageTracer tracer) {
+    CompletableFuture<String> cf = CompletableFuture.completedFuture("message");
+    for (int i = 0; i < STAGES; i++) {
+      cf = tracer.thenApply("upper", cf, String::toUpperCase);
+    }
+    return cf.join();
+  }
+}
@@ -0,0 +1,166 @@
+package com.example.completablefuture;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//Isolates the stages calling one dependency from those calling the others, so a slow backend can only tie up its own
+// share of threads. Pass the bulkhead as the Executor of that dependency's *Async stages.
+//threadPool() gives the dependency threads of its own with a bounded queue. semaphore() lets it use at most a number
+// of threads of a shared executor at once, without a queue. Either way, work beyond the limit is rejected with a
+// RejectedExecutionException, which fails the stage at once instead of letting it wait behind the slow backend.
+public final class Bulkhead implements Executor {
+
+  private final String name;
+  private final int maxConcurrent;
+  private final Executor delegate;
+  //Null for pool bulkheads, whose limit is the pool itself.
+  private final Semaphore permits;
+  private final BlockingQueue<Runnable> queue;
+
+  private final AtomicInteger active = new AtomicInteger();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  private Bulkhead(String name, int maxConcurrent, Executor delegate, Semaphore permits,
+      BlockingQueue<Runnable> queue) {
+    this.name = name;
+    this.maxConcurrent = maxConcurrent;
+    this.delegate = delegate;
+    this.permits = permits;
+    this.queue = queue;
+  }
+
+  //Daemon threads named after the dependency, with at most queueCapacity tasks waiting for one. With a capacity of 0
+  // nothing waits: a task is handed straight to an idle thread or rejected.
+  public static Bulkhead threadPool(String name, int threads, int queueCapacity) {
+    if (queueCapacity < 0) {
+      throw new IllegalArgumentException("queueCapacity must not be negative");
+    }
+    AtomicInteger count = new AtomicInteger();
+    BlockingQueue<Runnable> queue = queueCapacity == 0
+        ? new SynchronousQueue<>()
+        : new ArrayBlockingQueue<>(queueCapacity);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, r -> {
+      Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    return new Bulkhead(name, threads, pool, null, queue);
+  }
+
+  public static Bulkhead semaphore(String name, int maxConcurrent, Executor shared) {
+    return new Bulkhead(name, maxConcurrent, shared, new Semaphore(maxConcurrent), null);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    if (permits != null && !permits.tryAcquire()) {
+      reject();
+    }
+    Runnable counted = () -> {
+      active.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        //The permit goes back first, so once active() has dropped the permit is free again.
+        if (permits != null) {
+          permits.release();
+        }
+        active.decrementAndGet();
+      }
+    };
+    try {
+      delegate.execute(counted);
+    } catch (RejectedExecutionException e) {
+      if (permits != null) {
+        permits.release();
+      }
+      reject();
+    }
+    accepted.increment();
+  }
+
+  public String name() {
+    return name;
+  }
+
+  //Stops the bulkhead's own threads; a semaphore bulkhead leaves the shared executor alone.
+  public void shutdown() {
+    if (delegate instanceof ThreadPoolExecutor) {
+      ((ThreadPoolExecutor) delegate).shutdown();
+    }
+  }
+
+  public Snapshot snapshot() {
+    return new Snapshot(name, maxConcurrent, active.get(), queue == null ? 0 : queue.size(), accepted.sum(),
+        rejected.sum());
+  }
+
+  @Override
+  public String toString() {
+    return "Bulkhead[" + name + "]";
+  }
+
+  private void reject() {
+    rejected.increment();
+    throw new RejectedExecutionException(name + " bulkhead is full");
+  }
+
+  public static final class Snapshot {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int active;
+    private final int queued;
+    private final long accepted;
+    private final long rejected;
+
+    Snapshot(String name, int maxConcurrent, int active, int queued, long accepted, long rejected) {
+      this.name = name;
+      this.maxConcurrent = maxConcurrent;
+      this.active = active;
+      this.queued = queued;
+      this.accepted = accepted;
+      this.rejected = rejected;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public int maxConcurrent() {
+      return maxConcurrent;
+    }
+
+    public int active() {
+      return active;
+    }
+
+    public int queued() {
+      return queued;
+    }
+
+    public long accepted() {
+      return accepted;
+    }
+
+    public long rejected() {
+      return rejected;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%-8s max=%d active=%d queued=%d accepted=%d rejected=%d", name,
+          maxConcurrent, active, queued, accepted, rejected);
+    }
+  }
+}
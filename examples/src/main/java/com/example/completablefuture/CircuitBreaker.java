@@ -0,0 +1,247 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+//Fails calls fast while the backend behind them is failing or slow, instead of letting every one of them queue and wait.
+//While CLOSED, the outcome of every call goes into a sliding window of the last windowSize calls. Once the window is
+// full, a failure rate or slow-call rate at or above its threshold opens the breaker. While OPEN, calls fail at once
+// with an OpenCircuitException. After openDuration the breaker is HALF_OPEN and lets probes calls through: if they all
+// succeed in time it closes with an empty window, and the first one that fails or is slow opens it again. A probe
+// still outstanding once the breaker has been half-open for another openDuration counts as failed too, so one that
+// never completes cannot keep the breaker half-open, turning every call away, for good.
+//The state is an immutable Phase swapped with compareAndSet, and each CLOSED phase has its own window, so a result that
+// arrives after the phase it started in has ended is simply ignored. The window is a ring of outcome slots claimed
+// with getAndIncrement, with its failure and slow counts kept in step by the writer of each slot; nothing locks.
+public final class CircuitBreaker {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final int FAILED = 1;
+  private static final int SLOW = 2;
+
+  private static final OpenCircuitException OPEN = new OpenCircuitException();
+
+  private final int windowSize;
+  private final double failureRateThreshold;
+  private final long slowCallNanos;
+  private final double slowCallRateThreshold;
+  private final long openNanos;
+  private final int probes;
+  //System.nanoTime() is the largest part of the cost of a call, so calls are only timed if slow calls can open the
+  // breaker.
+  private final boolean timed;
+
+  private final AtomicReference<Phase> phase;
+  private final LongAdder rejected = new LongAdder();
+
+  //Rates are fractions between 0 and 1; a slow-call rate threshold above 1 turns that check off.
+  public CircuitBreaker(int windowSize, double failureRateThreshold, long slowCallDuration,
+      double slowCallRateThreshold, long openDuration, TimeUnit unit, int probes) {
+    if (windowSize < 1 || probes < 1) {
+      throw new IllegalArgumentException("windowSize and probes must be at least 1");
+    }
+    this.windowSize = windowSize;
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = unit.toNanos(slowCallDuration);
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openNanos = unit.toNanos(openDuration);
+    this.probes = probes;
+    this.timed = slowCallRateThreshold <= 1;
+    this.phase = new AtomicReference<>(closed());
+  }
+
+  //Starts the call if the breaker allows it and records its outcome. The returned future is the call's own.
+  public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<T>> call) {
+    Phase p = permit();
+    if (p == null) {
+      rejected.increment();
+      return CompletableFuture.failedFuture(OPEN);
+    }
+    long start = timed ? System.nanoTime() : 0;
+    CompletableFuture<T> cf;
+    try {
+      cf = call.get();
+    } catch (RuntimeException e) {
+      record(p, FAILED);
+      return CompletableFuture.failedFuture(e);
+    }
+    //A call that is already complete is recorded straight away, without registering a dependent stage.
+    if (cf.isDone()) {
+      record(p, outcome(cf.isCompletedExceptionally(), start));
+    } else if (timed) {
+      cf.whenComplete((v, th) -> record(p, outcome(th != null, start)));
+    } else {
+      cf.whenComplete(p.recorder);
+    }
+    return cf;
+  }
+
+  public State state() {
+    Phase p = phase.get();
+    long elapsed = System.nanoTime() - p.startedAt;
+    if (p.state == State.OPEN && elapsed >= openNanos) {
+      return State.HALF_OPEN;
+    }
+    if (p.state == State.HALF_OPEN && probesTimedOut(p, elapsed)) {
+      //Reopened when the probes ran out of time, and half-open again once that has lasted openDuration.
+      return elapsed < 2 * openNanos ? State.OPEN : State.HALF_OPEN;
+    }
+    return p.state;
+  }
+
+  //Of the calls in the current window; zero outside the CLOSED state.
+  public double failureRate() {
+    Window w = phase.get().window;
+    return w == null ? 0 : w.failures.get() / (double) Math.max(1, w.recorded());
+  }
+
+  public double slowCallRate() {
+    Window w = phase.get().window;
+    return w == null ? 0 : w.slow.get() / (double) Math.max(1, w.recorded());
+  }
+
+  //Calls failed fast because the breaker was open.
+  public long rejected() {
+    return rejected.sum();
+  }
+
+  //The phase the call runs under, or null if it may not run.
+  private Phase permit() {
+    while (true) {
+      Phase p = phase.get();
+      switch (p.state) {
+        case CLOSED:
+          return p;
+        case HALF_OPEN:
+          if (!probesTimedOut(p, System.nanoTime() - p.startedAt)) {
+            return p.probesStarted.incrementAndGet() <= probes ? p : null;
+          }
+          //The probes ran out of time: open again as of the moment they did.
+          phase.compareAndSet(p, phase(State.OPEN, null, p.startedAt + openNanos));
+          break;
+        default:
+          if (System.nanoTime() - p.startedAt < openNanos) {
+            return null;
+          }
+          phase.compareAndSet(p, phase(State.HALF_OPEN, null, System.nanoTime()));
+      }
+    }
+  }
+
+  private boolean probesTimedOut(Phase p, long elapsed) {
+    return elapsed >= openNanos && Math.min(p.probesStarted.get(), probes) > p.probesSucceeded.get();
+  }
+
+  private int outcome(boolean failed, long start) {
+    int outcome = failed ? FAILED : 0;
+    if (timed && System.nanoTime() - start >= slowCallNanos) {
+      outcome |= SLOW;
+    }
+    return outcome;
+  }
+
+  private void record(Phase p, int outcome) {
+    if (phase.get() != p) {
+      return;
+    }
+    if (p.state == State.CLOSED) {
+      Window w = p.window;
+      if (w.record(outcome) && (w.failures.get() >= failureRateThreshold * windowSize
+          || w.slow.get() >= slowCallRateThreshold * windowSize)) {
+        phase.compareAndSet(p, open());
+      }
+    } else if (outcome != 0) {
+      phase.compareAndSet(p, open());
+    } else if (p.probesSucceeded.incrementAndGet() == probes) {
+      phase.compareAndSet(p, closed());
+    }
+  }
+
+  private Phase closed() {
+    return phase(State.CLOSED, new Window(windowSize), 0);
+  }
+
+  private Phase open() {
+    return phase(State.OPEN, null, System.nanoTime());
+  }
+
+  private Phase phase(State state, Window window, long startedAt) {
+    Phase p = new Phase(state, window, startedAt);
+    p.recorder = (v, th) -> record(p, th == null ? 0 : FAILED);
+    return p;
+  }
+
+  private static final class Phase {
+
+    final State state;
+    final Window window;
+    //When an OPEN phase opened or a HALF_OPEN one started letting probes through; unused while CLOSED.
+    final long startedAt;
+    final AtomicInteger probesStarted = new AtomicInteger();
+    final AtomicInteger probesSucceeded = new AtomicInteger();
+    //Records an untimed call made under this phase; shared by all of them, so recording allocates no callback. Set
+    // right after construction, before the phase is published.
+    BiConsumer<Object, Throwable> recorder;
+
+    Phase(State state, Window window, long startedAt) {
+      this.state = state;
+      this.window = window;
+      this.startedAt = startedAt;
+    }
+  }
+
+  private static final class Window {
+
+    final AtomicIntegerArray slots;
+    final AtomicLong cursor = new AtomicLong();
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicInteger slow = new AtomicInteger();
+
+    Window(int size) {
+      slots = new AtomicIntegerArray(size);
+    }
+
+    //Overwrites the oldest outcome and returns whether the window has been filled at least once.
+    boolean record(int outcome) {
+      long n = cursor.getAndIncrement();
+      int slot = (int) (n % slots.length());
+      //The usual case, a success overwriting a success, needs no write at all.
+      int old = slots.get(slot);
+      if (old != outcome) {
+        old = slots.getAndSet(slot, outcome);
+      }
+      if (((old ^ outcome) & FAILED) != 0) {
+        failures.addAndGet((outcome & FAILED) != 0 ? 1 : -1);
+      }
+      if (((old ^ outcome) & SLOW) != 0) {
+        slow.addAndGet((outcome & SLOW) != 0 ? 1 : -1);
+      }
+      return n + 1 >= slots.length();
+    }
+
+    int recorded() {
+      return (int) Math.min(cursor.get(), slots.length());
+    }
+  }
+
+  //Thrown for calls rejected while the breaker is open. One shared instance without a stack trace, since failing fast
+  // is the whole point.
+  public static final class OpenCircuitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    OpenCircuitException() {
+      super("Circuit breaker is open", null, false, false);
+    }
+  }
+}
@@ -0,0 +1,1137 @@
+package com.example.completablefuture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.HdrHistogram.Histogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompletableFutureExamples {
+
+  //How long randomSleep() and randomDelay() wait, drawn per thread so that stages running on many pool threads at once
+  // do not contend on one shared Random. Uniform up to a second unless -Dexamples.latency picks another LatencyModel.
+  static Jitter jitter = LatencyModel.fromSystemProperties();
+
+  //Simulated backend latency for the stages below. The benchmarks module swaps it for Blackhole.consumeCPU so the
+  // per-stage overhead can be measured without the sleeps dominating.
+  static Runnable delay = CompletableFutureExamples::randomSleep;
+
+  //Every asynchronous stage below runs on this executor instead of the common pool; see StageExecutor for the
+  // -Dexamples.executor / -Dexamples.threads switches.
+  static StageExecutor executor = StageExecutor.fromSystemProperties();
+
+  //Every wait on an asynchronous result goes through this, so the examples wake up as soon as the work is done and a
+  // stuck stage fails after ten seconds instead of hanging main().
+  static CompletionAwaiter awaiter = new CompletionAwaiter(10, TimeUnit.SECONDS);
+
+  //Per-stage latency histograms of the instrumented pipelines, printed at the end of main().
+  static StageRecorder stages = new StageRecorder();
+
+  //Creating a Completed CompletableFuture
+  static void completedFutureExample(){
+    CompletableFuture<String> cf = CompletableFuture.completedFuture("message");
+    assertTrue(cf.isDone());
+    assertEquals("message",cf.getNow(null));
+  }
+
+  //Running a Simple Asynchronous Stage
+  //By default (when no Executor is specified), asynchronous execution uses the common ForkJoinPool implementation, which uses daemon threads to execute the
+  // Runnable task. Note that this is specific to CompletableFuture. Other CompletionStage implementations can override the default behavior.
+  //Here the stage is given our StageExecutor, so the assertion checks that it really ran on one of its threads. All of
+  // its modes use daemon threads as well. The simulated latency after it waits on the shared timer, not on the thread.
+  //runAsync takes Runnable as input parameter and returns CompletableFuture<Void>, which means it does not return any result.
+  //suppyAsync takes Supplier as argument and returns the CompletableFuture<U> with result value, which means it does not take any input parameters 
+  //but it returns result as output.
+  static void runAsyncExample(){
+    CompletableFuture<Void> cf = CompletableFuture.runAsync(() -> {
+      assertTrue(executor.runsOn(Thread.currentThread()));
+      assertTrue(Thread.currentThread().isDaemon());
+    }, executor).thenCompose(v -> randomDelay());
+    assertFalse(cf.isDone());
+    assertTrue(awaiter.awaitDone(cf));
+  }
+
+
+  //Applying a Function on the Previous Stage
+  //then, which means that the action of this stage happens when the current stage completes normally (without an exception). In this case,
+  // the current stage is already completed with the value “message”.
+  //Apply, which means the returned stage will apply a Function on the result of the previous stage.
+  static void thenApplyExample(){
+    CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApply(s ->{
+      assertFalse(Thread.currentThread().isDaemon());
+      return s.toUpperCase();
+    });
+
+    assertEquals("MESSAGE",cf.getNow(null));
+  }
+
+
+  //Asynchronously Applying a Function on a Previous Stage
+  //By appending the Async suffix to the method in the previous example,
+  // the chained CompletableFuture would execute asynchronously (using ForkJoinPool.commonPool(), or the given Executor).
+  //The input arrives after a delay on the shared timer, so no pool thread sits in a sleep waiting for it.
+  static void thenApplyAsyncExample(){
+    CompletableFuture<String> cf = randomDelay().thenApplyAsync(v -> {
+      assertTrue(executor.runsOn(Thread.currentThread()));
+      assertTrue(Thread.currentThread().isDaemon());
+      return "message".toUpperCase();
+    }, executor);
+    assertNull(cf.getNow(null));
+    assertEquals("MESSAGE",awaiter.await(cf));
+  }
+  //Applying a Function to the Result of Either of Two Completed Stages
+  //The below example creates a CompletableFuture that applies a Function to the result of either of two previous
+  // stages (no guarantees on which one will be passed to the Function). The two stages in question are: one that
+  // applies an uppercase conversion to the original string and another that applies a lowercase conversion. Both are
+  // started from the executor and compose on the timer-based delayed stages, so neither holds a thread while it waits:
+  static void applyToEitherExample() {
+    String original = "Message";
+    CompletableFuture<String> cf1 = CompletableFuture.completedFuture(original)
+        .thenComposeAsync(s -> delayedUpperCaseAsync(s), executor);
+    CompletableFuture<String> cf2 = cf1.applyToEither(
+        CompletableFuture.completedFuture(original).thenComposeAsync(s -> delayedLowerCaseAsync(s), executor),
+        s -> s + " from applyToEither");
+    assertTrue(awaiter.await(cf2).endsWith(" from applyToEither"));
+
+  }
+
+  //Accepting the Results of Both Stages in a BiConsumer
+  //Instead of executing a Runnable upon completion of both stages, using BiConsumer allows processing of their
+  // results if needed:
+  static void thenAcceptBothExample(){
+    String original = "Message";
+    StringBuilder result = new StringBuilder();
+    CompletableFuture.completedFuture(original).thenApply(String::toUpperCase).thenAcceptBoth(
+        CompletableFuture.completedFuture(original).thenApply(String::toLowerCase),
+        (s1, s2) -> result.append(s1 + s2));
+    assertEquals("MESSAGEmessage",result.toString());
+
+  }
+  // Applying a BiFunction on Results of Both Stages
+  //If the dependent CompletableFuture is intended to combine the results of two previous CompletableFutures by
+  // applying a function on them and returning a result, we can use the method thenCombine(). The entire pipeline is
+  // synchronous, so getNow() at the end would retrieve the final result, which is the concatenation of the uppercase
+  // and the lowercase outcomes.
+  static void thenCombineExample() {
+    String original = "Message";
+    CompletableFuture<String> cf = CompletableFuture.completedFuture(original).thenApply(s -> delayedUpperCase(s))
+        .thenCombine(CompletableFuture.completedFuture(original).thenApply(s -> delayedLowerCase(s)),
+            (s1,s2) -> s1 + s2);
+
+    assertEquals("MESSAGEmessage", cf.getNow(null));
+  }
+
+
+  //Asynchronously Applying a BiFunction on Results of Both Stages
+  //Similar to the previous example, but with a different behavior: since the two stages upon which CompletableFuture
+  // depends both run asynchronously, the thenCombine() method executes asynchronously, even though it lacks the
+  // Async suffix. This is documented in the class Javadocs: “Actions supplied for dependent completions of
+  // non-async methods may be performed by the thread that completes the current CompletableFuture, or by any other caller of a
+  // completion method.” Therefore, we need to join() on the combining CompletableFuture to wait for the result.
+  //The two branches compose on the timer-based delayed stages instead of sleeping on the executor's threads.
+  static void thenCombineAsyncExample() {
+    String original = "Message";
+    CompletableFuture<String> cf = CompletableFuture.completedFuture(original)
+        .thenComposeAsync(s -> delayedUpperCaseAsync(s), executor)
+        .thenCombineAsync(
+            CompletableFuture.completedFuture(original).thenComposeAsync(s -> delayedLowerCaseAsync(s), executor),
+            (s1, s2) -> s1 + s2, executor);
+    assertEquals("MESSAGEmessage", awaiter.await(cf));
+  }
+
+
+
+  static void thenComposeExample() {
+    String original = "Message";
+    CompletableFuture<String> cf = CompletableFuture.completedFuture(original).thenApply(s -> delayedUpperCase(s))
+        .thenCompose(upper -> CompletableFuture.completedFuture(original).thenApply(s -> delayedLowerCase(s))
+            .thenApply(s -> upper + s));
+    assertEquals("MESSAGEmessage", awaiter.await(cf));
+  }
+
+
+  static void anyOfExample() {
+    StringBuilder result = new StringBuilder();
+    List<String> messages = Arrays.asList("a", "b", "c");
+    List<CompletableFuture<String>> futures = messages.stream()
+        .map(msg -> CompletableFuture.completedFuture(msg).thenApply(s -> delayedUpperCase(s)))
+        .collect(Collectors.toList());
+    CompletableFuture.anyOf(futures.toArray(new CompletableFuture[futures.size()])).whenComplete((res, th) -> {
+      if(th == null) {
+        assertTrue(isUpperCase((String) res));
+        result.append(res);
+      }
+    });
+    assertTrue("Result was empty", result.length() > 0);
+  }
+
+
+  //Recording Where the Time Goes in Each Stage
+  //The thenCombineAsyncExample and thenComposeExample pipelines again, 20 at a time, with every stage going through the
+  // StageRecorder under its own name. The snapshot printed at the end of main() splits each stage into execution time
+  // and, for the stages that run on the executor, the time spent queued behind the other runs.
+  static void instrumentedPipelineExample() {
+    String original = "Message";
+    List<CompletableFuture<String>> runs = IntStream.range(0, 20)
+        .mapToObj(i -> {
+          CompletableFuture<String> upper = stages.thenApplyAsync("upper", CompletableFuture.completedFuture(original),
+              s -> sleepingUpperCase(s, 5), executor);
+          CompletableFuture<String> lower = stages.thenCompose("lower", CompletableFuture.completedFuture(original),
+              s -> delayedLowerCaseAsync(s));
+          CompletableFuture<String> combined = stages.thenCombineAsync("combine", upper, lower, (s1, s2) -> s1 + s2,
+              executor);
+          return stages.thenApply("exclaim", combined, s -> s + "!");
+        })
+        .collect(Collectors.toList());
+    awaiter.await(Futures.allAsList(runs)).forEach(s -> assertEquals("MESSAGEmessage!", s));
+    Map<String, StageRecorder.StageSnapshot> snapshot = stages.snapshot();
+    assertEquals(20, snapshot.get("upper").execution().getTotalCount());
+    assertEquals(20, snapshot.get("upper").queueing().getTotalCount());
+    assertEquals(0, snapshot.get("lower").queueing().getTotalCount());
+    assertTrue(snapshot.get("lower").execution().getMaxValue() >= snapshot.get("exclaim").execution().getMaxValue());
+  }
+
+
+  //Propagating a Deadline Through Composed Stages
+  //The same two-branch pipeline as thenCombineAsyncExample, but started from a Deadline: every stage built from it
+  // shares the one deadline. With enough time the pipeline completes as usual. With 50 ms against a one second
+  // backend call, it fails with a TimeoutException as soon as the deadline passes, and the stages after the slow one
+  // never run. A pipeline that finished in time cancels its deadline, so the timer does not hold on to it for the rest
+  // of the 5 seconds.
+  static void deadlineExample() {
+    String original = "Message";
+    Deadline generous = Deadline.after(5, TimeUnit.SECONDS);
+    DeadlineStage<String> cf = generous.completed(original)
+        .thenCompose(s -> delayedUpperCaseAsync(s))
+        .thenCombineAsync(generous.completed(original).thenCompose(s -> delayedLowerCaseAsync(s)),
+            (s1, s2) -> s1 + s2, executor);
+    assertEquals("MESSAGEmessage", awaiter.await(cf.toCompletableFuture()));
+    generous.cancel();
+    assertFalse(generous.isExpired());
+
+    Deadline tight = Deadline.after(50, TimeUnit.MILLISECONDS);
+    AtomicBoolean ranAfterDeadline = new AtomicBoolean();
+    long start = System.nanoTime();
+    CompletableFuture<String> late = tight.completed(original)
+        .thenCompose(s -> SharedTimer.delay(1, TimeUnit.SECONDS).thenApply(v -> s.toUpperCase()))
+        .thenApply(s -> {
+          ranAfterDeadline.set(true);
+          return s;
+        })
+        .toCompletableFuture();
+    assertTrue(awaiter.awaitDone(late));
+    //Done before the 1 s backend call could have completed.
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    assertTrue(late.isCompletedExceptionally());
+    try {
+      late.join();
+      fail("Expected a timeout");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertFalse(ranAfterDeadline.get());
+  }
+
+
+  //Hedging a Slow Stage
+  //applyToEither() races two stages that both start straight away. A Hedger only starts the second (backup) attempt
+  // when the first is still running after the operation's 90th percentile latency, then keeps whichever finishes
+  // first. Here one call in twenty is 100 times slower than the rest. Called directly that tail is the p99; with
+  // hedging it all but disappears from the results, at the price of roughly one extra call in ten. The two runs are
+  // compared with each other rather than with a fixed time, so a loaded machine slows both alike.
+  static void hedgedRequestExample() {
+    Hedger hedger = new Hedger(90, 20, TimeUnit.MILLISECONDS, executor);
+    long hedgedP99 = batchedP99(() -> hedger.call("upper", () -> tailDelayedUpperCaseAsync("message")));
+    long directP99 = batchedP99(() -> tailDelayedUpperCaseAsync("message"));
+    assertTrue("p99 was " + hedgedP99 + " ns hedged, " + directP99 + " ns direct", hedgedP99 < directP99 / 2);
+    assertTrue(hedger.hedges() < hedger.calls() / 4);
+  }
+
+  //Runs 8 batches of 50 calls and returns the p99 of their latencies.
+  private static long batchedP99(Supplier<CompletableFuture<String>> call) {
+    List<Long> latencies = new ArrayList<>();
+    for (int batch = 0; batch < 8; batch++) {
+      List<CompletableFuture<Long>> calls = IntStream.range(0, 50)
+          .mapToObj(i -> {
+            long start = System.nanoTime();
+            return call.get()
+                .thenApply(s -> {
+                  assertEquals("MESSAGE", s);
+                  return System.nanoTime() - start;
+                });
+          })
+          .collect(Collectors.toList());
+      latencies.addAll(awaiter.await(Futures.allAsList(calls)));
+    }
+    Collections.sort(latencies);
+    return latencies.get(latencies.size() * 99 / 100 - 1);
+  }
+
+
+  //Taking the First of Many Stages, Typed
+  //anyOf() above needs the list copied into an array and hands back an Object that has to be cast. Futures.firstOf()
+  // takes the list as is, keeps the element type, and cancels the stages that lost the race.
+  static void firstOfExample() {
+    List<CompletableFuture<String>> futures = Arrays.asList("a", "b", "c").stream()
+        .map(msg -> delayedUpperCaseAsync(msg))
+        .collect(Collectors.toList());
+    String first = awaiter.await(Futures.firstOf(futures));
+    assertTrue(isUpperCase(first));
+    assertEquals(2, futures.stream().filter(CompletableFuture::isCancelled).count());
+  }
+
+
+  //Stopping the Work Behind Cancelled Stages
+  //Cancelling a plain CompletableFuture leaves its supplier running. Here the anyOfExample race is run with
+  // InterruptibleFuture stages: once the 50 ms stage wins, firstOf() cancels the two 2 s losers, which interrupts their
+  // sleeps, so all three together hold a thread for about 150 ms instead of more than 4 s.
+  //A stage shared through dependent() keeps running until every dependent has been cancelled. A thenApplyAsync stage
+  // running delayedUpperCase is skipped when cancelled before its input arrives, and interrupted when cancelled while
+  // it runs.
+  static void cancellationExample() {
+    StageExecutor virtual = StageExecutor.virtualThreadPerTask();
+    LongAdder busyNanos = new LongAdder();
+    List<CompletableFuture<Void>> stopped = new ArrayList<>();
+    List<InterruptibleFuture<String>> futures = Arrays.asList(50L, 2000L, 2000L).stream()
+        .map(millis -> {
+          CompletableFuture<Void> done = new CompletableFuture<>();
+          stopped.add(done);
+          return InterruptibleFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+              return sleepingUpperCase("message", millis);
+            } finally {
+              busyNanos.add(System.nanoTime() - start);
+              done.complete(null);
+            }
+          }, virtual);
+        })
+        .collect(Collectors.toList());
+    assertEquals("MESSAGE", awaiter.await(Futures.firstOf(futures)));
+    assertTrue(futures.get(1).isCancelled() && futures.get(2).isCancelled());
+    assertTrue(awaiter.awaitAllDone(stopped));
+    //Less than either loser would have slept on its own.
+    assertTrue("Busy for " + busyNanos.sum() + " ns", busyNanos.sum() < TimeUnit.MILLISECONDS.toNanos(2000));
+
+    InterruptibleFuture<String> shared = InterruptibleFuture.supplyAsync(() -> sleepingUpperCase("message", 2000), virtual);
+    CompletableFuture<String> first = shared.dependent();
+    CompletableFuture<String> second = shared.dependent();
+    first.cancel(true);
+    assertFalse(shared.isDone());
+    second.cancel(true);
+    assertTrue(shared.isCancelled());
+
+    AtomicBoolean ran = new AtomicBoolean();
+    CompletableFuture<String> input = SharedTimer.delay(10, TimeUnit.MILLISECONDS).thenApply(v -> "message");
+    InterruptibleFuture<String> skipped = InterruptibleFuture.thenApplyAsync(input, s -> {
+      ran.set(true);
+      return delayedUpperCase(s);
+    }, virtual);
+    skipped.cancel(true);
+    awaiter.await(input);
+    assertFalse(ran.get());
+
+    CompletableFuture<Void> started = new CompletableFuture<>();
+    CompletableFuture<Void> interrupted = new CompletableFuture<>();
+    InterruptibleFuture<String> running = InterruptibleFuture.thenApplyAsync(input, s -> {
+      started.complete(null);
+      try {
+        return sleepingUpperCase(s, 2000);
+      } catch (CancellationException e) {
+        interrupted.complete(null);
+        throw e;
+      }
+    }, virtual);
+    awaiter.await(started);
+    running.cancel(true);
+    assertTrue(awaiter.awaitDone(interrupted));
+    virtual.shutdown();
+
+    //A shut-down executor rejects the task, which fails the stage instead of leaving it pending.
+    assertTrue(InterruptibleFuture.supplyAsync(() -> "message", virtual).isCompletedExceptionally());
+    InterruptibleFuture<String> rejected = InterruptibleFuture.thenApplyAsync(input, String::toUpperCase, virtual);
+    assertTrue(awaiter.awaitDone(rejected));
+    try {
+      rejected.join();
+      fail("Expected the rejection");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+  }
+
+
+  //Combining Any Number of Stages
+  //thenCombine() and thenAcceptBoth() only join two stages. Futures.allAsList() is the N-way version: it fans in a
+  // whole list of stages, here one per backend call, into a single future of all their results in input order.
+  static void allAsListExample() {
+    List<String> messages = IntStream.range(0, 24).mapToObj(i -> "Message" + i).collect(Collectors.toList());
+    List<CompletableFuture<String>> futures = messages.stream()
+        .map(msg -> delayedUpperCaseAsync(msg))
+        .collect(Collectors.toList());
+    List<String> results = awaiter.await(Futures.allAsList(futures));
+    for (int i = 0; i < messages.size(); i++) {
+      assertEquals(messages.get(i).toUpperCase(), results.get(i));
+    }
+  }
+
+
+  //Modelling Backend Latency
+  //A uniform 0-1000 ms delay has no tail to speak of. LatencyModel offers the usual shapes, and a log-normal fitted to
+  // a p50 and a p99 reproduces both when sampled, which makes the delayed stages usable as a load model. A recorded
+  // histogram can be replayed as well; one with a zero or repeated bound, or a negative count, is refused up front
+  // rather than failing the first draw that lands in it.
+  static void latencyModelExample() {
+    long[] samples = sample(LatencyModel.logNormal(20, 200, TimeUnit.MILLISECONDS), 100_000);
+    assertEquals(20, samples[samples.length / 2] / 1e6, 2);
+    assertEquals(200, samples[samples.length * 99 / 100] / 1e6, 30);
+
+    Jitter replay = LatencyModel.replay(new double[] {10, 50, 1000}, new long[] {90, 0, 10}, TimeUnit.MILLISECONDS);
+    long[] replayed = sample(replay, 100_000);
+    assertTrue(replayed[replayed.length * 89 / 100] < TimeUnit.MILLISECONDS.toNanos(10));
+    assertTrue(replayed[replayed.length * 91 / 100] >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    double[][] badBounds = {{0, 50}, {10, 10}, {10, 50}};
+    long[][] badCounts = {{1, 1}, {1, 1}, {1, -1}};
+    for (int i = 0; i < badBounds.length; i++) {
+      try {
+        LatencyModel.replay(badBounds[i], badCounts[i], TimeUnit.MILLISECONDS);
+        fail("Expected histogram " + i + " to be refused");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+
+  //Thousands of Blocking Stages on Virtual Threads
+  //delayedUpperCase blocks in randomSleep() for up to a second. On a pool every sleeping stage holds a platform thread,
+  // so a few thousand of them queue up behind each other. With one virtual thread per stage a sleeping stage unmounts
+  // from its carrier thread, and all of them are in flight at the same time: the whole batch takes about as long as
+  // the slowest single sleep.
+  static void virtualThreadStagesExample() {
+    StageExecutor virtual = StageExecutor.virtualThreadPerTask();
+    long start = System.nanoTime();
+    List<CompletableFuture<String>> futures = IntStream.range(0, 5_000)
+        .mapToObj(i -> CompletableFuture.completedFuture("message").thenApplyAsync(s -> delayedUpperCase(s), virtual))
+        .collect(Collectors.toList());
+    assertTrue(awaiter.awaitAllDone(futures));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    futures.forEach(cf -> assertEquals("MESSAGE", cf.getNow(null)));
+    virtual.shutdown();
+  }
+
+  //Delaying Stages on a Timer Instead of a Thread
+  //delayedUpperCaseAsync does not sleep: it composes on a future that the shared timer completes after the random
+  // delay, so the simulated latency costs a timer queue entry instead of a blocked thread. 100k of them can be pending
+  // at once while the live thread count stays where it was.
+  static void timerDelayedStagesExample() {
+    SharedTimer.delay(0, TimeUnit.MILLISECONDS).join();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    int threadsBefore = threads.getThreadCount();
+    List<CompletableFuture<String>> futures = IntStream.range(0, 100_000)
+        .mapToObj(i -> delayedUpperCaseAsync("message"))
+        .collect(Collectors.toList());
+    assertTrue(threads.getThreadCount() <= threadsBefore + 2);
+    assertTrue(awaiter.awaitAllDone(futures));
+    futures.forEach(cf -> assertEquals("MESSAGE", cf.getNow(null)));
+  }
+
+  //Is the Pool Saturated?
+  //A stalled thenApplyAsync either waits in the executor's queue or runs on a thread that is itself stuck, and metrics()
+  // tells the two apart. The same numbers are on the platform MBean server for jconsole; the examples' own executor is
+  // registered at startup. Here two threads are blocked on a gate with two more stages queued behind them.
+  static void executorMetricsExample() {
+    StageExecutor pool = StageExecutor.fixedThreadPool(2);
+    ObjectName name = pool.registerMBean();
+    CompletableFuture<Void> gate = new CompletableFuture<>();
+    List<CompletableFuture<Void>> started = IntStream.range(0, 2)
+        .mapToObj(i -> new CompletableFuture<Void>())
+        .collect(Collectors.toList());
+    List<CompletableFuture<Void>> blocked = IntStream.range(0, 4)
+        .mapToObj(i -> CompletableFuture.runAsync(() -> {
+          if (i < started.size()) {
+            started.get(i).complete(null);
+          }
+          gate.join();
+        }, pool))
+        .collect(Collectors.toList());
+    assertTrue(awaiter.awaitAllDone(started));
+
+    ExecutorMetrics metrics = pool.metrics();
+    assertEquals(2, metrics.activeThreads());
+    assertEquals(2, metrics.queuedTasks());
+    assertEquals(4, metrics.submittedTasks());
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    StageExecutorMXBean mbean = JMX.newMXBeanProxy(server, name, StageExecutorMXBean.class);
+    assertEquals(2, mbean.getQueuedTasks());
+    assertEquals(4, mbean.getSubmittedTasks());
+
+    gate.complete(null);
+    assertTrue(awaiter.awaitAllDone(blocked));
+    pool.shutdown();
+    try {
+      CompletableFuture.runAsync(() -> fail("ran after shutdown"), pool);
+      fail("expected a rejection");
+    } catch (RejectedExecutionException e) {
+      assertEquals(1, pool.metrics().rejectedTasks());
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+
+  //Tracing the Stage Graph of a Pipeline
+  //The thenCombineAsyncExample pipeline, with a 20 ms upper-case branch on the executor and a 50 ms lower-case branch on
+  // the timer, built through a StageTracer. The trace has one stage per step with the stages it waited for, so it shows
+  // that the two branches overlapped and the combine could only start after the slower one. Run with
+  // -Dexamples.trace=trace.json to write it out for chrome://tracing. A disabled tracer records nothing.
+  static StageTracer tracedPipelineExample() {
+    String original = "Message";
+    StageTracer disabled = StageTracer.disabled();
+    CompletableFuture<String> untraced = disabled.thenApply("upper", CompletableFuture.completedFuture(original),
+        String::toUpperCase);
+    assertEquals("MESSAGE", untraced.getNow(null));
+    assertTrue(disabled.stages().isEmpty());
+
+    StageTracer tracer = StageTracer.enabled();
+    CompletableFuture<String> upper = tracer.thenApplyAsync("upper", CompletableFuture.completedFuture(original),
+        s -> sleepingUpperCase(s, 20), executor);
+    CompletableFuture<String> lower = tracer.thenCompose("lower", CompletableFuture.completedFuture(original),
+        s -> SharedTimer.delay(50, TimeUnit.MILLISECONDS).thenApply(v -> s.toLowerCase()));
+    CompletableFuture<String> combined = tracer.thenCombineAsync("combine", upper, lower, (s1, s2) -> s1 + s2,
+        executor);
+    assertEquals("MESSAGEmessage!", awaiter.await(tracer.thenApply("exclaim", combined, s -> s + "!")));
+
+    Map<String, StageTracer.Stage> byName = tracer.stages().stream()
+        .collect(Collectors.toMap(StageTracer.Stage::name, stage -> stage));
+    StageTracer.Stage combine = byName.get("combine");
+    assertEquals(Arrays.asList(byName.get("upper"), byName.get("lower")), combine.parents());
+    assertEquals(Collections.singletonList(combine), byName.get("exclaim").parents());
+    assertTrue(byName.get("upper").startNanos() < byName.get("lower").endNanos());
+    assertTrue(combine.startNanos() >= byName.get("lower").endNanos());
+    assertTrue(tracer.toChromeTrace().contains("\"name\":\"combine\""));
+    //The trace stays valid JSON in a locale with decimal commas.
+    Locale previous = Locale.getDefault();
+    Locale.setDefault(Locale.GERMANY);
+    try {
+      assertFalse(tracer.toChromeTrace().matches("(?s).*\"(ts|dur)\":\\d+,\\d.*"));
+    } finally {
+      Locale.setDefault(previous);
+    }
+    return tracer;
+  }
+
+
+  //Finding the Critical Path
+  //Which branch of the traced pipeline bounded its latency? Normally the 50 ms lower-case branch is on the critical path
+  // along with everything after it, while the 20 ms upper-case branch could have taken 30 ms longer without delaying
+  // the result; on a loaded machine the upper-case stage can queue long enough to swap them, so the expected path is
+  // taken from the branch that ended last. The same report is printed at the end of main().
+  //In an applyToEither race only the winner is on the path. The loser could have ended any time later, and here it
+  // even ends after the stage it fed.
+  static void criticalPathExample(StageTracer trace) {
+    CriticalPath critical = CriticalPath.of(trace.stages());
+    StageTracer.Stage upper = trace.stages().get(0);
+    StageTracer.Stage lower = trace.stages().get(1);
+    assertEquals("upper", upper.name());
+    assertEquals("lower", lower.name());
+    StageTracer.Stage slower = upper.endNanos() > lower.endNanos() ? upper : lower;
+    StageTracer.Stage faster = slower == upper ? lower : upper;
+    assertEquals(Arrays.asList(slower.name(), "combine", "exclaim"),
+        critical.path().stream().map(StageTracer.Stage::name).collect(Collectors.toList()));
+    assertFalse(critical.isCritical(faster));
+    assertEquals(slower.endNanos() - faster.endNanos(), critical.slackNanos(faster));
+    critical.path().forEach(stage -> assertEquals(0, critical.slackNanos(stage)));
+    assertTrue(critical.lengthNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    StageTracer race = StageTracer.enabled();
+    CompletableFuture<String> fast = race.thenCompose("fast", CompletableFuture.completedFuture("Message"),
+        s -> SharedTimer.delay(10, TimeUnit.MILLISECONDS).thenApply(v -> s.toUpperCase()));
+    CompletableFuture<String> slow = race.thenCompose("slow", CompletableFuture.completedFuture("Message"),
+        s -> SharedTimer.delay(60, TimeUnit.MILLISECONDS).thenApply(v -> s.toLowerCase()));
+    assertEquals("MESSAGE!", awaiter.await(race.applyToEither("first", fast, slow, s -> s + "!")));
+    awaiter.await(slow);
+    Map<String, StageTracer.Stage> raced = race.stages().stream()
+        .collect(Collectors.toMap(StageTracer.Stage::name, stage -> stage));
+    assertTrue(raced.get("slow").endNanos() > raced.get("first").endNanos());
+    CriticalPath either = CriticalPath.of(race.stages());
+    assertEquals(Arrays.asList(raced.get("fast"), raced.get("first")), either.path());
+    assertEquals(CriticalPath.UNLIMITED, either.slackNanos(raced.get("slow")));
+  }
+
+
+  //Mapping a Stream Through Async Calls, N at a Time
+  //anyOfExample starts a call for every message at once. Futures.mapAsync() keeps at most three calls in flight over
+  // getStringStream() and returns the results as a stream, either in input order or as they complete. It only pulls
+  // what it needs from the source, so taking five results from an endless stream makes at most eight calls.
+  static void mapAsyncExample() {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    Function<String, CompletableFuture<String>> call = s -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      return SharedTimer.delay(ThreadLocalRandom.current().nextInt(20), TimeUnit.MILLISECONDS)
+          .thenApply(v -> {
+            inFlight.decrementAndGet();
+            return s.toUpperCase();
+          });
+    };
+    List<String> expected = OptionalUseCases.getStringStream().map(String::toUpperCase).collect(Collectors.toList());
+    assertEquals(expected, Futures.mapAsync(OptionalUseCases.getStringStream(), call, 3).collect(Collectors.toList()));
+    List<String> unordered = Futures.mapAsync(OptionalUseCases.getStringStream(), call, 3,
+        Futures.Ordering.COMPLETION).collect(Collectors.toList());
+    assertEquals(new HashSet<>(expected), new HashSet<>(unordered));
+    assertTrue(maxInFlight.get() <= 3);
+
+    AtomicInteger calls = new AtomicInteger();
+    try (Stream<String> endless = Futures.mapAsync(Stream.generate(() -> "message"), s -> {
+      calls.incrementAndGet();
+      return call.apply(s);
+    }, 3)) {
+      assertEquals(5, endless.limit(5).count());
+    }
+    assertTrue(calls.get() <= 8);
+  }
+
+
+  //Backpressure with java.util.concurrent.Flow
+  //getStringStream() as a Flow.Publisher, through a thenCompose-style processor with a prefetch of two. The processor
+  // asks for one more message per result it emits, so a slow upper-case stage holds the producer back: the source is
+  // never more than two messages ahead of the results, however fast it could go. Asking the processor for zero items
+  // fails it with an IllegalArgumentException, delivered in turn with any results like every other signal, and cancels
+  // the source, even when the processor is asked before it has been subscribed to the source at all.
+  static void flowExample() {
+    AtomicInteger pulled = new AtomicInteger();
+    AtomicInteger emitted = new AtomicInteger();
+    AtomicInteger maxAhead = new AtomicInteger();
+    Flow.Publisher<String> source = Flows.publisher(() -> OptionalUseCases.getStringStream()
+        .peek(s -> maxAhead.accumulateAndGet(pulled.incrementAndGet() - emitted.get(), Math::max)));
+    Flow.Processor<String, String> upper = Flows.thenCompose(s -> SharedTimer.delay(5, TimeUnit.MILLISECONDS)
+        .thenApply(v -> {
+          emitted.incrementAndGet();
+          return s.toUpperCase();
+        }), 2);
+    source.subscribe(upper);
+    List<String> expected = OptionalUseCases.getStringStream().map(String::toUpperCase).collect(Collectors.toList());
+    assertEquals(expected, awaiter.await(Flows.toList(upper, 100)));
+    assertTrue(maxAhead.get() <= 2);
+
+    Flow.Processor<String, String> refused = Flows.thenCompose(s -> CompletableFuture.completedFuture(s), 2);
+    Flows.publisher(() -> OptionalUseCases.getStringStream()).subscribe(refused);
+    assertTrue(awaiter.await(requestNothing(refused)) instanceof IllegalArgumentException);
+
+    AtomicInteger pulledAfterRefusal = new AtomicInteger();
+    Flow.Processor<String, String> early = Flows.thenCompose(s -> CompletableFuture.completedFuture(s), 2);
+    CompletableFuture<Throwable> earlyError = requestNothing(early);
+    Flows.publisher(() -> OptionalUseCases.getStringStream().peek(s -> pulledAfterRefusal.incrementAndGet()))
+        .subscribe(early);
+    assertTrue(awaiter.await(earlyError) instanceof IllegalArgumentException);
+    assertEquals(0, pulledAfterRefusal.get());
+  }
+
+  //Subscribes with a request for zero items, and returns what the publisher signals back: the error, or null if it
+  // completed.
+  private static CompletableFuture<Throwable> requestNothing(Flow.Publisher<String> publisher) {
+    CompletableFuture<Throwable> error = new CompletableFuture<>();
+    publisher.subscribe(new Flow.Subscriber<String>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(0);
+      }
+
+      public void onNext(String item) {
+      }
+
+      public void onError(Throwable throwable) {
+        error.complete(throwable);
+      }
+
+      public void onComplete() {
+        error.complete(null);
+      }
+    });
+    return error;
+  }
+
+
+  //Batching Many Small Calls into a Few Big Ones
+  //anyOfExample makes one delayedUpperCase call per message. Behind a MicroBatcher, 210 messages submitted at once go
+  // out as batches of up to 50, each one backend call with a single delay, and every caller still gets its own result.
+  // The 5 ms window sends whatever is left over once no more messages arrive. That is normally five batches, but a
+  // window can also run out while the messages are still being submitted, so only the bounds are checked.
+  //A batch call that breaks its contract, here by completing with null instead of a list of results, fails every
+  // message of the batch rather than leaving them waiting. Its single message only goes out when the window runs out,
+  // and that call is made on the executor, not on the timer thread.
+  static void microBatchingExample() {
+    List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    MicroBatcher<String, String> batcher = new MicroBatcher<>(batch -> {
+      batchSizes.add(batch.size());
+      return randomDelay().thenApply(v -> batch.stream().map(String::toUpperCase).collect(Collectors.toList()));
+    }, 50, 5, TimeUnit.MILLISECONDS, executor);
+    List<CompletableFuture<String>> futures = IntStream.range(0, 210)
+        .mapToObj(i -> batcher.submit("message" + i))
+        .collect(Collectors.toList());
+    List<String> results = awaiter.await(Futures.allAsList(futures));
+    IntStream.range(0, 210).forEach(i -> assertEquals("MESSAGE" + i, results.get(i)));
+    assertTrue(batcher.batches() >= 5);
+    assertEquals(batcher.batches(), batchSizes.size());
+    assertTrue(batchSizes.stream().allMatch(size -> size <= 50));
+    assertEquals(210, batcher.items());
+
+    AtomicBoolean sentFromExecutor = new AtomicBoolean();
+    MicroBatcher<String, String> broken = new MicroBatcher<>(batch -> {
+      sentFromExecutor.set(executor.runsOn(Thread.currentThread()));
+      return CompletableFuture.completedFuture(null);
+    }, 50, 5, TimeUnit.MILLISECONDS, executor);
+    CompletableFuture<String> failed = broken.submit("message");
+    assertTrue(awaiter.awaitDone(failed));
+    assertTrue(sentFromExecutor.get());
+    try {
+      failed.join();
+      fail("Expected the batch to fail");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+
+  //Sharing One Call Between Concurrent Requests for the Same Input
+  //thenAcceptBothExample and thenCombineExample convert the same "Message" again and again. Through a SingleFlight, a
+  // hundred concurrent requests for it share a single delayedUpperCaseAsync call, and once that call has completed the
+  // next request starts a fresh one.
+  static void singleFlightExample() {
+    SingleFlight<String, String> upperCase = new SingleFlight<>();
+    List<CompletableFuture<String>> futures = IntStream.range(0, 100)
+        .mapToObj(i -> upperCase.call("Message", s -> delayedUpperCaseAsync(s)))
+        .collect(Collectors.toList());
+    futures.get(0).cancel(true);
+    futures.subList(1, 100).forEach(cf -> assertEquals("MESSAGE", awaiter.await(cf)));
+    assertEquals(1, upperCase.calls());
+    assertEquals(99, upperCase.shared());
+    assertEquals(0, upperCase.inFlight());
+
+    assertEquals("MESSAGE", awaiter.await(upperCase.call("Message", s -> delayedUpperCaseAsync(s))));
+    assertEquals(2, upperCase.calls());
+  }
+
+
+  //Retrying a Failing Stage with Backoff and a Budget
+  //A backend that fails twice before answering is retried with waits of 1-10 ms on the shared timer, while a failure
+  // the predicate does not accept is passed straight through. The retries are started on the executor rather than on
+  // the timer thread that ends each wait. Against a backend that always fails, a retry budget of one retry per ten
+  // calls, capped at two tokens saved up, keeps a hundred calls from turning into three hundred.
+  static void retryExample() {
+    Retry retry = new Retry(3, 1, 10, TimeUnit.MILLISECONDS, 0.1, 10, th -> th instanceof IllegalStateException,
+        executor);
+    AtomicInteger attempts = new AtomicInteger();
+    AtomicInteger retriedOnExecutor = new AtomicInteger();
+    CompletableFuture<String> flaky = retry.call(() -> {
+      if (attempts.incrementAndGet() > 1 && executor.runsOn(Thread.currentThread())) {
+        retriedOnExecutor.incrementAndGet();
+      }
+      return attempts.get() < 3
+          ? CompletableFuture.failedFuture(new IllegalStateException("backend unavailable"))
+          : delayedUpperCaseAsync("message");
+    });
+    assertEquals("MESSAGE", awaiter.await(flaky));
+    assertEquals(3, attempts.get());
+    assertEquals(2, retriedOnExecutor.get());
+
+    CompletableFuture<String> invalid = retry.call(
+        () -> CompletableFuture.failedFuture(new IllegalArgumentException("bad input")));
+    try {
+      awaiter.await(invalid);
+      fail("expected the failure to be passed through");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+    assertEquals(2, retry.retries());
+
+    Retry budgeted = new Retry(3, 1, 10, TimeUnit.MILLISECONDS, 0.1, 2, th -> true);
+    List<CompletableFuture<String>> failing = IntStream.range(0, 100)
+        .mapToObj(i -> budgeted.<String>call(
+            () -> CompletableFuture.failedFuture(new IllegalStateException("backend down"))))
+        .collect(Collectors.toList());
+    failing.forEach(cf -> awaiter.awaitDone(cf));
+    assertTrue(failing.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+    assertTrue(budgeted.retries() <= 2 + 10);
+    assertTrue(budgeted.budgetExhausted() > 0);
+  }
+
+
+  //Failing Fast While a Backend Is Down
+  //When the backend behind delayedLowerCase degrades, a CircuitBreaker stops sending it calls: twenty failures out of
+  // twenty open it, and the next call fails at once without reaching the backend. 50 ms later three probes are let
+  // through, and their success closes it again.
+  //A probe that never completes does not leave the breaker half-open for good: with one probe allowed, the calls after
+  // it are turned away, but once it has had 50 ms it counts as failed, and after another 50 ms open a new probe closes
+  // the breaker.
+  static void circuitBreakerExample() {
+    CircuitBreaker breaker = new CircuitBreaker(20, 0.5, 100, 0.5, 50, TimeUnit.MILLISECONDS, 3);
+    AtomicInteger backendCalls = new AtomicInteger();
+    IntStream.range(0, 20).forEach(i -> breaker.<String>call(() -> {
+      backendCalls.incrementAndGet();
+      return CompletableFuture.failedFuture(new IllegalStateException("backend down"));
+    }));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    CompletableFuture<String> rejected = breaker.call(() -> {
+      backendCalls.incrementAndGet();
+      return CompletableFuture.completedFuture("message");
+    });
+    assertTrue(rejected.isCompletedExceptionally());
+    assertEquals(20, backendCalls.get());
+    assertEquals(1, breaker.rejected());
+
+    awaiter.await(SharedTimer.delay(60, TimeUnit.MILLISECONDS));
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+    List<CompletableFuture<String>> probes = IntStream.range(0, 3)
+        .mapToObj(i -> breaker.call(() -> CompletableFuture.completedFuture("message").thenApply(String::toLowerCase)))
+        .collect(Collectors.toList());
+    probes.forEach(cf -> assertEquals("message", awaiter.await(cf)));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    assertEquals(0, breaker.failureRate(), 0);
+
+    CircuitBreaker oneProbe = new CircuitBreaker(1, 0.5, 100, 0.5, 50, TimeUnit.MILLISECONDS, 1);
+    oneProbe.call(() -> CompletableFuture.failedFuture(new IllegalStateException("backend down")));
+    awaiter.await(SharedTimer.delay(60, TimeUnit.MILLISECONDS));
+    CompletableFuture<String> hung = oneProbe.call(CompletableFuture::new);
+    assertTrue(oneProbe.call(() -> CompletableFuture.completedFuture("message")).isCompletedExceptionally());
+    awaiter.await(SharedTimer.delay(110, TimeUnit.MILLISECONDS));
+    assertEquals(CircuitBreaker.State.HALF_OPEN, oneProbe.state());
+    assertEquals("message", awaiter.await(oneProbe.call(() -> CompletableFuture.completedFuture("message"))));
+    assertEquals(CircuitBreaker.State.CLOSED, oneProbe.state());
+    assertFalse(hung.isDone());
+  }
+
+
+  //Keeping a Slow Branch from Starving the Other
+  //thenCombineAsyncExample runs both branches on one pool. Here the two branches are started twice every 5 ms for a
+  // quarter of a second, and the upper-case backend spikes from 2 ms to 20 ms. On a shared pool of four threads the
+  // upper-case stages pile up in its queue and the lower-case ones wait behind them. With a bulkhead of two threads
+  // per branch, the upper-case stages beyond its limit are rejected at once and the lower-case branch keeps the
+  // latency it had before the spike. The runs are compared with each other rather than with fixed times, so a loaded
+  // machine slows them all alike.
+  //A semaphore bulkhead shares a pool instead of having threads of its own: at most two of its stages run at once, a
+  // third is rejected, and a permit comes back when a stage ends, whether it completed normally or failed.
+  static void bulkheadExample() {
+    StageExecutor shared = StageExecutor.fixedThreadPool(4);
+    Histogram sharedSpike = lowerCaseLatencies(shared, shared, 20);
+
+    Bulkhead upper = Bulkhead.threadPool("upper", 2, 4);
+    Bulkhead lower = Bulkhead.threadPool("lower", 2, 4);
+    Histogram isolatedSteady = lowerCaseLatencies(upper, lower, 2);
+    Histogram isolatedSpike = lowerCaseLatencies(upper, lower, 20);
+    assertEquals(0, lower.snapshot().rejected());
+    assertTrue(upper.snapshot().rejected() > 0);
+    upper.shutdown();
+    lower.shutdown();
+    assertTrue(sharedSpike.getValueAtPercentile(99) > isolatedSpike.getValueAtPercentile(99) * 4);
+    //The p99 of a hundred samples is all but their maximum, and one late wakeup in either run moves it, so the isolated
+    // runs are compared at the p90.
+    assertTrue(isolatedSpike.getValueAtPercentile(90) < isolatedSteady.getValueAtPercentile(90) * 2);
+
+    Bulkhead limited = Bulkhead.semaphore("limited", 2, shared);
+    CompletableFuture<Void> release = new CompletableFuture<>();
+    CompletableFuture<String> succeeds = CompletableFuture.completedFuture("Message").thenApplyAsync(s -> {
+      release.join();
+      return s.toLowerCase();
+    }, limited);
+    CompletableFuture<String> fails = CompletableFuture.completedFuture("Message").thenApplyAsync(s -> {
+      release.join();
+      throw new IllegalStateException("backend failed");
+    }, limited);
+    CompletableFuture<String> rejected = CompletableFuture.completedFuture("Message")
+        .thenApplyAsync(String::toLowerCase, limited);
+    assertTrue(rejected.isCompletedExceptionally());
+    release.complete(null);
+    assertEquals("message", awaiter.await(succeeds));
+    assertTrue(awaiter.awaitDone(fails));
+    assertTrue(fails.isCompletedExceptionally());
+    //The permits come back just after the stages complete, so wait for that too, but not for ever.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (limited.snapshot().active() > 0) {
+      assertTrue("permits not released", System.nanoTime() < deadline);
+      awaiter.await(SharedTimer.delay(1, TimeUnit.MILLISECONDS));
+    }
+    List<CompletableFuture<String>> afterwards = IntStream.range(0, 2)
+        .mapToObj(i -> CompletableFuture.completedFuture("Message").thenApplyAsync(String::toLowerCase, limited))
+        .collect(Collectors.toList());
+    assertEquals(Arrays.asList("message", "message"), awaiter.await(Futures.allAsList(afterwards)));
+    assertEquals(1, limited.snapshot().rejected());
+    shared.shutdown();
+  }
+
+  //The latencies of the lower-case branch, from submission to result, while the upper-case branch takes upperMillis.
+  private static Histogram lowerCaseLatencies(Executor upperExecutor, Executor lowerExecutor, long upperMillis) {
+    Histogram latencies = new Histogram(3);
+    List<CompletableFuture<?>> runs = new ArrayList<>();
+    for (int round = 0; round < 50; round++) {
+      for (int i = 0; i < 2; i++) {
+        runs.add(CompletableFuture.completedFuture("Message")
+            .thenApplyAsync(s -> sleepingUpperCase(s, upperMillis), upperExecutor)
+            .exceptionally(th -> null));
+        long start = System.nanoTime();
+        runs.add(CompletableFuture.completedFuture("Message")
+            .thenApplyAsync(s -> sleepingUpperCase(s, 2).toLowerCase(), lowerExecutor)
+            .thenRun(() -> {
+              synchronized (latencies) {
+                latencies.recordValue(System.nanoTime() - start);
+              }
+            }));
+      }
+      awaiter.await(SharedTimer.delay(5, TimeUnit.MILLISECONDS));
+    }
+    assertTrue(awaiter.awaitAllDone(runs));
+    return latencies;
+  }
+
+
+  //Capping the Call Rate Without Blocking
+  //A RateLimiter of 100 permits a second with a burst of 10 in front of delayedUpperCaseAsync: of 30 calls made at once,
+  // the first ten start straight away and the rest are spaced 10 ms apart by the shared timer, so the last one starts
+  // 200 ms after the limiter was created. No thread waits for a permit in the meantime.
+  //The timer never fires early, so that 200 ms holds however loaded the machine is. Which of the later permits had to
+  // wait does depend on how quickly they were asked for, so that is only checked when the 30 calls took under 10 ms.
+  static void rateLimiterExample() {
+    long start = System.nanoTime();
+    RateLimiter limiter = new RateLimiter(100, 10);
+    List<CompletableFuture<Void>> permits = IntStream.range(0, 30)
+        .mapToObj(i -> limiter.acquire())
+        .collect(Collectors.toList());
+    boolean quick = System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(10);
+    assertTrue(permits.subList(0, 10).stream().allMatch(CompletableFuture::isDone));
+    if (quick) {
+      assertFalse(limiter.tryAcquire());
+      assertEquals(20, limiter.delayed());
+    }
+    List<CompletableFuture<String>> calls = permits.stream()
+        .map(permit -> permit.thenCompose(v -> delayedUpperCaseAsync("message")))
+        .collect(Collectors.toList());
+    assertTrue(awaiter.awaitAllDone(permits));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    assertEquals(30, limiter.granted());
+    awaiter.await(Futures.allAsList(calls)).forEach(s -> assertEquals("MESSAGE", s));
+  }
+
+  //Finding the Concurrency Limit from Latency
+  //The backend is a pool of four threads taking 4 to 6 ms per call, so by Little's law it serves four calls at a time
+  // and anything more queues inside it. Calls arrive at 200, 600 and then 1600 a second, twice what the backend can do.
+  // Admitted through a ConcurrencyLimiter that starts at two, the limit grows as the load does and settles at about
+  // twice four, the queueing its TOLERANCE allows, instead of growing on with the load or falling below the four the
+  // backend can take. In the overload step the excess
+  // is turned away and the admitted calls keep a p99 of a few round trips; sent straight to the backend, the same load
+  // only builds a queue.
+  //A backend that turns slower without queueing is another matter: here every call waits on the timer, so nothing
+  // queues, and its latency steps from 0.5-1.5 ms to 5-15 ms under a steady 1000 calls a second. Round trips ten times
+  // the no-load one first shrink the limit and turn calls away, but a probe soon re-measures the no-load round trip
+  // at about 5 ms and the limit grows back to the ten calls in flight the load needs. Kept at the old 0.5 ms minimum
+  // it would stay small and turn away most of them.
+  static void concurrencyLimiterExample() {
+    StageExecutor backend = StageExecutor.fixedThreadPool(4);
+    Jitter backendLatency = LatencyModel.uniform(4, 6, TimeUnit.MILLISECONDS);
+    Supplier<CompletableFuture<String>> backendCall = () -> CompletableFuture.supplyAsync(
+        () -> sleepingUpperCase("message", backendLatency.nextDelayNanos(), TimeUnit.NANOSECONDS), backend);
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 100, 4);
+    long[] ratesPerSecond = {200, 600, 1600};
+    long overloadP99 = 0;
+    List<Integer> limits = new ArrayList<>();
+    for (long rate : ratesPerSecond) {
+      limits.clear();
+      overloadP99 = steppedLoadP99(rate, () -> {
+        limits.add(limiter.limit());
+        return limiter.call(backendCall);
+      });
+    }
+    //The median of the limits seen during the overload step, since a probe halves it for a window now and then.
+    Collections.sort(limits);
+    int overloadLimit = limits.get(limits.size() / 2);
+    assertTrue(overloadLimit >= 4);
+    assertTrue(overloadLimit <= 4 * ConcurrencyLimiter.TOLERANCE * 2);
+    assertTrue(limiter.rejected() > 0);
+
+    long unlimitedP99 = steppedLoadP99(1600, backendCall);
+    assertTrue(unlimitedP99 > overloadP99 * 2);
+    backend.shutdown();
+
+    AtomicReference<Jitter> latency = new AtomicReference<>(LatencyModel.uniform(0.5, 1.5, TimeUnit.MILLISECONDS));
+    ConcurrencyLimiter stepped = new ConcurrencyLimiter(2, 1, 100, 4);
+    Supplier<CompletableFuture<String>> slowingCall = () -> stepped.call(
+        () -> SharedTimer.delay(latency.get().nextDelayNanos(), TimeUnit.NANOSECONDS).thenApply(v -> "MESSAGE"));
+    steppedLoadP99(1000, slowingCall);
+    latency.set(LatencyModel.uniform(5, 15, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 4; i++) {
+      steppedLoadP99(1000, slowingCall);
+    }
+    long rejectedBefore = stepped.rejected();
+    steppedLoadP99(1000, slowingCall);
+    assertTrue(stepped.rejected() - rejectedBefore < 30);
+  }
+
+  //Sends calls at the given rate for 300 ms, one batch per millisecond, and returns the p99 of those that succeeded.
+  private static long steppedLoadP99(long ratePerSecond, Supplier<CompletableFuture<String>> call) {
+    Histogram latencies = new Histogram(3);
+    List<CompletableFuture<?>> calls = new ArrayList<>();
+    long begin = System.nanoTime();
+    long sent = 0;
+    for (long elapsed = 0; elapsed < TimeUnit.MILLISECONDS.toNanos(300); elapsed = System.nanoTime() - begin) {
+      for (long due = elapsed * ratePerSecond / TimeUnit.SECONDS.toNanos(1); sent < due; sent++) {
+        long start = System.nanoTime();
+        calls.add(call.get().thenRun(() -> {
+          synchronized (latencies) {
+            latencies.recordValue(System.nanoTime() - start);
+          }
+        }));
+      }
+      awaiter.await(SharedTimer.delay(1, TimeUnit.MILLISECONDS));
+    }
+    awaiter.awaitAllDone(calls);
+    return latencies.getValueAtPercentile(99);
+  }
+
+
+  public static void main(String[] args) {
+    completedFutureExample();
+    runAsyncExample();
+    thenApplyExample();
+    thenApplyAsyncExample();
+    applyToEitherExample();
+    thenAcceptBothExample();
+    thenCombineExample();
+    thenCombineAsyncExample();
+    thenComposeExample();
+    anyOfExample();
+    instrumentedPipelineExample();
+    deadlineExample();
+    hedgedRequestExample();
+    firstOfExample();
+    cancellationExample();
+    allAsListExample();
+    latencyModelExample();
+    virtualThreadStagesExample();
+    timerDelayedStagesExample();
+    executorMetricsExample();
+    StageTracer trace = tracedPipelineExample();
+    criticalPathExample(trace);
+    mapAsyncExample();
+    flowExample();
+    microBatchingExample();
+    singleFlightExample();
+    retryExample();
+    circuitBreakerExample();
+    bulkheadExample();
+    rateLimiterExample();
+    concurrencyLimiterExample();
+    System.out.println("Completion waits: " + awaiter.snapshot());
+    System.out.println("Executor: " + executor.metrics());
+    stages.snapshot().values().forEach(System.out::println);
+    System.out.println(CriticalPath.of(trace.stages()));
+    String traceFile = System.getProperty("examples.trace");
+    if (traceFile != null) {
+      trace.writeChromeTrace(Paths.get(traceFile));
+    }
+  }
+
+  //Blocking versions for the synchronous examples, whose whole pipeline must be complete once it is built, and for the
+  // ones about blocking stages. Asynchronous pipelines use the timer-based versions below.
+  static String delayedUpperCase(String s) {
+    delay.run();
+    return s.toUpperCase();
+  }
+
+  static String delayedLowerCase(String s) {
+    delay.run();
+    return s.toLowerCase();
+  }
+
+
+  static CompletableFuture<String> delayedUpperCaseAsync(String s) {
+    return randomDelay().thenApply(v -> s.toUpperCase());
+  }
+
+  static CompletableFuture<String> delayedLowerCaseAsync(String s) {
+    return randomDelay().thenApply(v -> s.toLowerCase());
+  }
+
+  //delayedUpperCaseAsync with a fixed 2 ms latency, except for one call in twenty that takes 200 ms.
+  private static CompletableFuture<String> tailDelayedUpperCaseAsync(String s) {
+    long delay = ThreadLocalRandom.current().nextInt(20) == 0 ? 200 : 2;
+    return SharedTimer.delay(delay, TimeUnit.MILLISECONDS).thenApply(v -> s.toUpperCase());
+  }
+
+  //Like delayedUpperCase, but with a fixed sleep that, unlike randomSleep(), gives up as soon as it is interrupted.
+  private static String sleepingUpperCase(String s, long millis) {
+    return sleepingUpperCase(s, millis, TimeUnit.MILLISECONDS);
+  }
+
+  private static String sleepingUpperCase(String s, long delay, TimeUnit unit) {
+    try {
+      unit.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted");
+    }
+    return s.toUpperCase();
+  }
+
+  private static CompletableFuture<Void> randomDelay() {
+    return SharedTimer.delay(jitter.nextDelayNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  private static void randomSleep() {
+    try {
+      TimeUnit.NANOSECONDS.sleep(jitter.nextDelayNanos());
+    } catch (InterruptedException e) {
+      // ...
+    }
+  }
+
+  private static long[] sample(Jitter jitter, int count) {
+    long[] samples = new long[count];
+    for (int i = 0; i < count; i++) {
+      samples[i] = jitter.nextDelayNanos();
+    }
+    Arrays.sort(samples);
+    return samples;
+  }
+
+  private static boolean isUpperCase(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (Character.isLowerCase(s.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
+
@@ -0,0 +1,123 @@
+package com.example.completablefuture;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+//Waits for futures to complete, up to a timeout, and keeps count of how long the callers waited.
+//A latch counted down from a completion callback replaces fixed sleeps such as the old sleepEnough(): the caller
+// wakes up as soon as the work is done, and a stage that hangs fails after the timeout instead of blocking forever.
+public final class CompletionAwaiter {
+
+  private final long timeoutNanos;
+
+  private final LongAdder waits = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder totalWaitNanos = new LongAdder();
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+
+  public CompletionAwaiter(long timeout, TimeUnit unit) {
+    this.timeoutNanos = unit.toNanos(timeout);
+  }
+
+  //Returns whether the future completed (normally or not) within the timeout.
+  public boolean awaitDone(CompletableFuture<?> cf) {
+    if (cf.isDone()) {
+      record(0, true);
+      return true;
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    cf.whenComplete((v, th) -> latch.countDown());
+    return await(latch);
+  }
+
+  //Returns whether every future completed within one shared timeout.
+  public boolean awaitAllDone(Collection<? extends CompletableFuture<?>> futures) {
+    CountDownLatch latch = new CountDownLatch(futures.size());
+    for (CompletableFuture<?> cf : futures) {
+      cf.whenComplete((v, th) -> latch.countDown());
+    }
+    return await(latch);
+  }
+
+  //Like join(), but fails with a CompletionException caused by a TimeoutException once the timeout has passed.
+  public <T> T await(CompletableFuture<T> cf) {
+    if (!awaitDone(cf)) {
+      throw new CompletionException(new TimeoutException("Not completed within " + timeoutNanos + " ns"));
+    }
+    return cf.join();
+  }
+
+  public Snapshot snapshot() {
+    return new Snapshot(waits.sum(), timeouts.sum(), totalWaitNanos.sum(), maxWaitNanos.get());
+  }
+
+  private boolean await(CountDownLatch latch) {
+    long start = System.nanoTime();
+    boolean done;
+    try {
+      done = latch.await(timeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      done = false;
+    }
+    record(System.nanoTime() - start, done);
+    return done;
+  }
+
+  private void record(long waitNanos, boolean done) {
+    waits.increment();
+    if (!done) {
+      timeouts.increment();
+    }
+    totalWaitNanos.add(waitNanos);
+    maxWaitNanos.accumulate(waitNanos);
+  }
+
+  public static final class Snapshot {
+
+    private final long waits;
+    private final long timeouts;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    Snapshot(long waits, long timeouts, long totalWaitNanos, long maxWaitNanos) {
+      this.waits = waits;
+      this.timeouts = timeouts;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public long waits() {
+      return waits;
+    }
+
+    public long timeouts() {
+      return timeouts;
+    }
+
+    public long totalWaitNanos() {
+      return totalWaitNanos;
+    }
+
+    public long maxWaitNanos() {
+      return maxWaitNanos;
+    }
+
+    public long meanWaitNanos() {
+      return waits == 0 ? 0 : totalWaitNanos / waits;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "waits=%d timeouts=%d total=%.1fms mean=%.1fms max=%.1fms", waits, timeouts,
+          totalWaitNanos / 1e6, meanWaitNanos() / 1e6, maxWaitNanos / 1e6);
+    }
+  }
+}
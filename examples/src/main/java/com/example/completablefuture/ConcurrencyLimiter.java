@@ -0,0 +1,205 @@
+package com.example.completablefuture;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+//Limits the calls in flight to a backend, and finds the limit by itself from the calls' round-trip times instead of a
+// pool size picked up front.
+//By Little's law the concurrency a backend can take without queueing is its throughput times its no-load latency; any
+// more only queues up inside it and shows up as latency. So every window of WINDOW_SAMPLES calls the limit moves by the
+// gradient between the no-load round trip and the window's average, allowing for some queueing (TOLERANCE):
+//  newLimit = limit * max(MIN_GRADIENT, min(1, TOLERANCE * minRtt / averageRtt)) + sqrt(limit)
+// smoothed, and bounded by minLimit and maxLimit. While round trips stay near the no-load one the square-root headroom
+// grows the limit; once the backend queues, the gradient drops below one and shrinks it, by at most half per window.
+// The limit is only raised by a window in which the calls actually reached it, so a quiet period does not inflate it.
+//The no-load round trip is the lowest one seen, re-measured every PROBE_WINDOWS windows, or sooner once even the
+// fastest call of SLOW_WINDOWS windows in a row took longer than the tolerance allows: for one window the limit is
+// halved, which drains any queue the limiter itself built in the backend. After a probe for slow windows the lowest
+// round trip of that window replaces the old one, so a backend that really became slower, rather than queueing, is no
+// longer taken for a queueing one and the limit grows back, where a minimum kept forever would shrink it for good. A
+// periodic probe can only lower the minimum: halving may not drain a queue the limiter did not build, and a minimum
+// taken from such a window, accepted every time, would ratchet up until the queue passed for no load.
+//Calls over the limit wait in a queue of up to maxQueued and start as earlier calls complete; beyond that they fail at
+// once with a LimitExceededException. Round trips are timed from the start of the call, not from entering the queue.
+// A queued call is started on the thread that completed the call before it, so the supplier must only start the call
+// and return.
+public final class ConcurrencyLimiter {
+
+  static final int WINDOW_SAMPLES = 20;
+  static final double TOLERANCE = 2;
+  static final int PROBE_WINDOWS = 10;
+  static final int SLOW_WINDOWS = 2;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double SMOOTHING = 0.2;
+
+  private static final LimitExceededException LIMIT_EXCEEDED = new LimitExceededException();
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final int maxQueued;
+
+  private volatile int limit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  //Guarded by this: the limit before rounding down, so that small steps add up, the current window, the no-load round
+  // trip and the probe that re-measures it.
+  private double estimate;
+  private long minRttNanos = Long.MAX_VALUE;
+  private int windowsSinceProbe;
+  private int slowWindows;
+  private boolean probing;
+  private boolean probeForSlowWindows;
+  private long probeMinRttNanos;
+  private long windowRttNanos;
+  private long windowMinRttNanos = Long.MAX_VALUE;
+  private int windowSamples;
+  private int windowMaxInFlight;
+
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued) {
+    if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+      throw new IllegalArgumentException("Need 1 <= minLimit <= initialLimit <= maxLimit");
+    }
+    this.limit = initialLimit;
+    this.estimate = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.maxQueued = maxQueued;
+  }
+
+  public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<T>> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Runnable start = () -> start(call, result);
+    if (tryAcquire()) {
+      start.run();
+      return result;
+    }
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      rejected.increment();
+      return CompletableFuture.failedFuture(LIMIT_EXCEEDED);
+    }
+    queue.add(start);
+    //A call that completed between the tryAcquire() above and the add() did not see this one; look again.
+    drain();
+    return result;
+  }
+
+  public int limit() {
+    return limit;
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  public int queued() {
+    return queued.get();
+  }
+
+  //Calls failed at once because both the limit and the queue were full.
+  public long rejected() {
+    return rejected.sum();
+  }
+
+  private boolean tryAcquire() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  private <T> void start(Supplier<? extends CompletableFuture<T>> call, CompletableFuture<T> result) {
+    int concurrency = inFlight.get();
+    long start = System.nanoTime();
+    CompletableFuture<T> cf;
+    try {
+      cf = call.get();
+    } catch (RuntimeException e) {
+      cf = CompletableFuture.failedFuture(e);
+    }
+    cf.whenComplete((v, th) -> {
+      sample(System.nanoTime() - start, concurrency);
+      inFlight.decrementAndGet();
+      drain();
+      if (th != null) {
+        result.completeExceptionally(th);
+      } else {
+        result.complete(v);
+      }
+    });
+  }
+
+  //Starts queued calls while there is room under the limit.
+  private void drain() {
+    while (!queue.isEmpty() && tryAcquire()) {
+      Runnable next = queue.poll();
+      if (next == null) {
+        inFlight.decrementAndGet();
+        continue;
+      }
+      queued.decrementAndGet();
+      next.run();
+    }
+  }
+
+  private synchronized void sample(long rttNanos, int concurrency) {
+    if (probing) {
+      probeMinRttNanos = Math.min(probeMinRttNanos, rttNanos);
+    } else {
+      minRttNanos = Math.min(minRttNanos, rttNanos);
+    }
+    windowRttNanos += rttNanos;
+    windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+    windowMaxInFlight = Math.max(windowMaxInFlight, concurrency);
+    if (++windowSamples < WINDOW_SAMPLES) {
+      return;
+    }
+    slowWindows = windowMinRttNanos > TOLERANCE * minRttNanos ? slowWindows + 1 : 0;
+    if (probing) {
+      probing = false;
+      minRttNanos = probeForSlowWindows ? probeMinRttNanos : Math.min(minRttNanos, probeMinRttNanos);
+      slowWindows = 0;
+      limit = (int) estimate;
+    } else if (++windowsSinceProbe == PROBE_WINDOWS || slowWindows == SLOW_WINDOWS) {
+      probeForSlowWindows = slowWindows == SLOW_WINDOWS;
+      windowsSinceProbe = 0;
+      probing = true;
+      probeMinRttNanos = Long.MAX_VALUE;
+      limit = Math.max(minLimit, (int) (estimate / 2));
+    } else {
+      double averageRtt = windowRttNanos / (double) windowSamples;
+      double gradient = Math.max(MIN_GRADIENT, Math.min(1, TOLERANCE * minRttNanos / averageRtt));
+      double target = estimate * gradient + Math.sqrt(estimate);
+      if (target > estimate && windowMaxInFlight < limit) {
+        target = estimate;
+      }
+      estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1 - SMOOTHING) + target * SMOOTHING));
+      limit = (int) estimate;
+    }
+    windowRttNanos = 0;
+    windowMinRttNanos = Long.MAX_VALUE;
+    windowSamples = 0;
+    windowMaxInFlight = 0;
+  }
+
+  //Thrown for calls turned away with the limit and the queue both full. One shared instance without a stack trace.
+  public static final class LimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    LimitExceededException() {
+      super("Concurrency limit exceeded", null, false, false);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package com.example.completablefuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//The critical path of a traced pipeline: the chain of stages that bounded its end-to-end latency, and how much slack
+// every other stage had.
+//A stage becomes ready when the parent that triggers it ends: its last parent, or its first one for an applyToEither
+// stage (see Stage.waitsForAny()). The path is found walking back from the final stage that ended last, each time to
+// the triggering parent, since that is the one the stage was waiting for; the losing input of an either-stage is not
+// on the path. A stage's slack is how much later it could have ended without delaying the end of the pipeline: for a
+// stage with dependents, the smallest over them of the time between this stage's end and the moment the dependent
+// became ready plus the dependent's own slack; for a final stage, the time between its end and the end of the
+// pipeline. An input that lost every race it took part in could have ended any time later, and has UNLIMITED slack.
+// Stages on the path have no slack. The time a stage spent queued after becoming ready is reported separately, since
+// shortening it shortens the path as much as a faster stage would.
+public final class CriticalPath {
+
+  public static final long UNLIMITED = Long.MAX_VALUE;
+
+  private final List<StageTracer.Stage> path;
+  private final Map<StageTracer.Stage, Long> slackNanos;
+  private final long lengthNanos;
+
+  private CriticalPath(List<StageTracer.Stage> path, Map<StageTracer.Stage, Long> slackNanos, long lengthNanos) {
+    this.path = path;
+    this.slackNanos = slackNanos;
+    this.lengthNanos = lengthNanos;
+  }
+
+  //Analyzes the stages of one traced run, as returned by StageTracer.stages(). Parents outside the given stages are
+  // ignored.
+  public static CriticalPath of(Collection<StageTracer.Stage> stages) {
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("No stages to analyze");
+    }
+    Map<StageTracer.Stage, List<StageTracer.Stage>> children = new HashMap<>();
+    for (StageTracer.Stage s : stages) {
+      children.put(s, new ArrayList<>());
+    }
+    for (StageTracer.Stage s : stages) {
+      for (StageTracer.Stage p : s.parents()) {
+        List<StageTracer.Stage> siblings = children.get(p);
+        if (siblings != null) {
+          siblings.add(s);
+        }
+      }
+    }
+
+    //Slack flows from dependents to parents, so stages are visited in reverse topological order of the parent graph:
+    // final stages first, and every other stage once all of its dependents have been. End times would not do, since
+    // the losing input of an either-stage can end after the stage itself.
+    Map<StageTracer.Stage, Integer> pendingChildren = new HashMap<>();
+    ArrayDeque<StageTracer.Stage> ready = new ArrayDeque<>();
+    StageTracer.Stage last = null;
+    for (StageTracer.Stage s : stages) {
+      int n = children.get(s).size();
+      pendingChildren.put(s, n);
+      if (n == 0) {
+        ready.add(s);
+        if (last == null || s.endNanos() > last.endNanos()) {
+          last = s;
+        }
+      }
+    }
+    long end = last.endNanos();
+    Map<StageTracer.Stage, Long> slack = new HashMap<>();
+    while (!ready.isEmpty()) {
+      StageTracer.Stage s = ready.poll();
+      slack.put(s, slackNanos(s, children, slack, end));
+      for (StageTracer.Stage p : s.parents()) {
+        if (pendingChildren.containsKey(p) && pendingChildren.merge(p, -1, Integer::sum) == 0) {
+          ready.add(p);
+        }
+      }
+    }
+
+    List<StageTracer.Stage> path = new ArrayList<>();
+    StageTracer.Stage s = last;
+    while (s != null) {
+      path.add(s);
+      s = trigger(s, children);
+    }
+    Collections.reverse(path);
+
+    Map<StageTracer.Stage, Long> byStage = new LinkedHashMap<>();
+    stages.stream().sorted(Comparator.comparingInt(StageTracer.Stage::id)).forEach(t -> byStage.put(t, slack.get(t)));
+    return new CriticalPath(Collections.unmodifiableList(path), Collections.unmodifiableMap(byStage),
+        end - path.get(0).startNanos());
+  }
+
+  //From the start of the first stage on the path to the end of the last one.
+  public long lengthNanos() {
+    return lengthNanos;
+  }
+
+  //The stages that bounded the pipeline's latency, first to last.
+  public List<StageTracer.Stage> path() {
+    return path;
+  }
+
+  public boolean isCritical(StageTracer.Stage stage) {
+    return path.contains(stage);
+  }
+
+  public long slackNanos(StageTracer.Stage stage) {
+    Long slack = slackNanos.get(stage);
+    if (slack == null) {
+      throw new IllegalArgumentException("Not part of this pipeline: " + stage);
+    }
+    return slack;
+  }
+
+  //Every stage with its slack, in the order the stages were built.
+  public Map<StageTracer.Stage, Long> slackNanos() {
+    return slackNanos;
+  }
+
+  //The time a stage on the path waited between becoming ready and starting itself.
+  public long queuedNanos(StageTracer.Stage stage) {
+    StageTracer.Stage parent = trigger(stage, slackNanos);
+    return parent == null ? 0 : Math.max(0, stage.startNanos() - parent.endNanos());
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "Critical path %s:", millis(lengthNanos)));
+    for (StageTracer.Stage s : path) {
+      summary.append(String.format(Locale.ROOT, "%n  %-24s %s", s.name(), millis(s.durationNanos())));
+      long queued = queuedNanos(s);
+      if (queued > 0) {
+        summary.append(" after ").append(millis(queued)).append(" queued");
+      }
+    }
+    slackNanos.forEach((s, slack) -> {
+      if (!isCritical(s)) {
+        summary.append(String.format(Locale.ROOT, "%n  %-24s %s, slack %s", s.name(), millis(s.durationNanos()),
+            slack == UNLIMITED ? "unlimited" : millis(slack)));
+      }
+    });
+    return summary.toString();
+  }
+
+  private static long slackNanos(StageTracer.Stage s, Map<StageTracer.Stage, List<StageTracer.Stage>> children,
+      Map<StageTracer.Stage, Long> slack, long end) {
+    List<StageTracer.Stage> dependents = children.get(s);
+    if (dependents.isEmpty()) {
+      return end - s.endNanos();
+    }
+    long min = UNLIMITED;
+    for (StageTracer.Stage c : dependents) {
+      long childSlack = slack.get(c);
+      //Only the input that won the race could have delayed an either-stage.
+      if (childSlack == UNLIMITED || (c.waitsForAny() && trigger(c, children) != s)) {
+        continue;
+      }
+      min = Math.min(min, readyNanos(c, children) - s.endNanos() + childSlack);
+    }
+    return min;
+  }
+
+  private static long readyNanos(StageTracer.Stage stage, Map<StageTracer.Stage, ?> known) {
+    StageTracer.Stage parent = trigger(stage, known);
+    return parent == null ? stage.startNanos() : parent.endNanos();
+  }
+
+  //The parent whose end made the stage ready: the first to end for an either-stage, otherwise the last.
+  private static StageTracer.Stage trigger(StageTracer.Stage stage, Map<StageTracer.Stage, ?> known) {
+    StageTracer.Stage trigger = null;
+    for (StageTracer.Stage p : stage.parents()) {
+      if (known.containsKey(p) && (trigger == null
+          || (stage.waitsForAny() ? p.endNanos() < trigger.endNanos() : p.endNanos() > trigger.endNanos()))) {
+        trigger = p;
+      }
+    }
+    return trigger;
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
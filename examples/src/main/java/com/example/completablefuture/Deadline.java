@@ -0,0 +1,79 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//A deadline set once at the start of a pipeline and carried by every stage built from it.
+//There is one timer entry per deadline, on SharedTimer, not one per stage: when it fires, every stage of the pipeline
+// that has not finished yet completes exceptionally with the deadline's TimeoutException, and stages that would
+// start afterwards fail straight away without running their function.
+//Until then the timer entry, and through it every stage still bound to the deadline, stays reachable. Call cancel()
+// once the last stage has completed so that a long deadline does not keep finished pipelines alive for its whole
+// timeout.
+public final class Deadline {
+
+  private final long deadlineNanos;
+  private final long timeoutNanos;
+  //Completes exceptionally when the deadline passes, or normally when it is cancelled.
+  private final CompletableFuture<Void> expiry = new CompletableFuture<>();
+  private final ScheduledFuture<?> timer;
+
+  private Deadline(long timeoutNanos) {
+    this.timeoutNanos = timeoutNanos;
+    this.deadlineNanos = System.nanoTime() + timeoutNanos;
+    this.timer = SharedTimer.schedule(() -> expiry.completeExceptionally(timeoutException()), timeoutNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  public static Deadline after(long timeout, TimeUnit unit) {
+    return new Deadline(unit.toNanos(timeout));
+  }
+
+  public long remainingNanos() {
+    return deadlineNanos - System.nanoTime();
+  }
+
+  public boolean isExpired() {
+    return expiry.isCompletedExceptionally() || (!expiry.isDone() && remainingNanos() <= 0);
+  }
+
+  //Stops enforcing the deadline: removes its timer entry and releases the stages bound to it. Stages still running
+  // complete normally, however late. Does nothing once the deadline has passed.
+  public void cancel() {
+    timer.cancel(false);
+    expiry.complete(null);
+  }
+
+  public <T> DeadlineStage<T> completed(T value) {
+    return stage(CompletableFuture.completedFuture(value));
+  }
+
+  public <T> DeadlineStage<T> stage(CompletableFuture<T> cf) {
+    return new DeadlineStage<>(this, bind(cf));
+  }
+
+  //A future that completes like cf, or with the TimeoutException once the deadline passes, whichever comes first.
+  <T> CompletableFuture<T> bind(CompletableFuture<T> cf) {
+    if (cf.isDone()) {
+      return cf;
+    }
+    CompletableFuture<T> bound = new CompletableFuture<>();
+    cf.handle((v, th) -> th == null ? bound.complete(v) : bound.completeExceptionally(th));
+    expiry.handle((v, th) -> th != null && bound.completeExceptionally(th));
+    return bound;
+  }
+
+  //Called by every stage before it runs its function.
+  void check() {
+    if (isExpired()) {
+      throw new CompletionException(timeoutException());
+    }
+  }
+
+  private TimeoutException timeoutException() {
+    return new TimeoutException("Deadline of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms exceeded");
+  }
+}
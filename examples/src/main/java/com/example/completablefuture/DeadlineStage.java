@@ -0,0 +1,70 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+//One stage of a pipeline bound to a Deadline. Each method mirrors the CompletableFuture method of the same name; the
+// stage it returns carries the same deadline, checks it before running the function and fails with the deadline's
+// TimeoutException if it is still incomplete when the deadline passes.
+public final class DeadlineStage<T> {
+
+  private final Deadline deadline;
+  private final CompletableFuture<T> future;
+
+  DeadlineStage(Deadline deadline, CompletableFuture<T> future) {
+    this.deadline = deadline;
+    this.future = future;
+  }
+
+  public <U> DeadlineStage<U> thenApply(Function<? super T, ? extends U> fn) {
+    return next(future.thenApply(v -> {
+      deadline.check();
+      return fn.apply(v);
+    }));
+  }
+
+  public <U> DeadlineStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+    return next(future.thenApplyAsync(v -> {
+      deadline.check();
+      return fn.apply(v);
+    }, executor));
+  }
+
+  public <U> DeadlineStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+    return next(future.thenCompose(v -> {
+      deadline.check();
+      return fn.apply(v);
+    }));
+  }
+
+  public <U, V> DeadlineStage<V> thenCombine(DeadlineStage<? extends U> other,
+      BiFunction<? super T, ? super U, ? extends V> fn) {
+    return next(future.thenCombine(other.future, (t, u) -> {
+      deadline.check();
+      return fn.apply(t, u);
+    }));
+  }
+
+  public <U, V> DeadlineStage<V> thenCombineAsync(DeadlineStage<? extends U> other,
+      BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+    return next(future.thenCombineAsync(other.future, (t, u) -> {
+      deadline.check();
+      return fn.apply(t, u);
+    }, executor));
+  }
+
+  public Deadline deadline() {
+    return deadline;
+  }
+
+  public CompletableFuture<T> toCompletableFuture() {
+    return future;
+  }
+
+  private <U> DeadlineStage<U> next(CompletableFuture<U> cf) {
+    return new DeadlineStage<>(deadline, deadline.bind(cf));
+  }
+}
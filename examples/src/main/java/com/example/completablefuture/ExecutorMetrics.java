@@ -0,0 +1,63 @@
+package com.example.completablefuture;
+
+import java.util.Locale;
+
+//A point-in-time reading of a StageExecutor. The gauges are read one after the other without stopping the pool, so
+// they are each accurate but not necessarily consistent with one another.
+public final class ExecutorMetrics {
+
+  private final StageExecutor.Mode mode;
+  private final long poolSize;
+  private final long activeThreads;
+  private final long queuedTasks;
+  private final long steals;
+  private final long submittedTasks;
+  private final long rejectedTasks;
+
+  ExecutorMetrics(StageExecutor.Mode mode, long poolSize, long activeThreads, long queuedTasks, long steals,
+      long submittedTasks, long rejectedTasks) {
+    this.mode = mode;
+    this.poolSize = poolSize;
+    this.activeThreads = activeThreads;
+    this.queuedTasks = queuedTasks;
+    this.steals = steals;
+    this.submittedTasks = submittedTasks;
+    this.rejectedTasks = rejectedTasks;
+  }
+
+  public StageExecutor.Mode mode() {
+    return mode;
+  }
+
+  public long poolSize() {
+    return poolSize;
+  }
+
+  public long activeThreads() {
+    return activeThreads;
+  }
+
+  //Tasks waiting for a thread; always zero for virtual threads, which never queue.
+  public long queuedTasks() {
+    return queuedTasks;
+  }
+
+  //Tasks taken from another worker's queue; only work-stealing pools report any.
+  public long steals() {
+    return steals;
+  }
+
+  public long submittedTasks() {
+    return submittedTasks;
+  }
+
+  public long rejectedTasks() {
+    return rejectedTasks;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%s pool=%d active=%d queued=%d steals=%d submitted=%d rejected=%d", mode,
+        poolSize, activeThreads, queuedTasks, steals, submittedTasks, rejectedTasks);
+  }
+}
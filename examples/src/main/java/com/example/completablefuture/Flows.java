@@ -0,0 +1,357 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+//Bridges between java.util.concurrent.Flow and the asynchronous stages, so a source is pulled only as fast as its
+// slowest stage consumes it instead of being turned into an unbounded pile of futures.
+//publisher() emits a stream on demand. thenApplyAsync() and thenCompose() are processors that run each item through
+// the stage of the same name with at most prefetch items in flight, and emit the results in order as downstream demand
+// allows. Upstream is asked for one more item per result emitted, so a stage that falls behind stops the producer.
+//Every Subscriber call is made from inside a drain loop that only one thread runs at a time, whichever thread last
+// requested, completed a stage or delivered an item; none of this blocks.
+public final class Flows {
+
+  //Handed to subscribers that are refused, right before their onError.
+  private static final Flow.Subscription NO_DEMAND = new Flow.Subscription() {
+    @Override
+    public void request(long n) {
+    }
+
+    @Override
+    public void cancel() {
+    }
+  };
+
+  private Flows() {
+  }
+
+  //A cold publisher: every subscriber gets its own stream from the supplier, pulled one element per unit of demand.
+  public static <T> Flow.Publisher<T> publisher(Supplier<? extends Stream<? extends T>> source) {
+    return subscriber -> {
+      Objects.requireNonNull(subscriber);
+      StreamSubscription<T> subscription = new StreamSubscription<>(subscriber, source.get());
+      subscriber.onSubscribe(subscription);
+    };
+  }
+
+  public static <T, R> Flow.Processor<T, R> thenApplyAsync(Function<? super T, ? extends R> fn, Executor executor,
+      int prefetch) {
+    return new AsyncMapProcessor<T, R>(t -> CompletableFuture.supplyAsync(() -> fn.apply(t), executor), prefetch);
+  }
+
+  public static <T, R> Flow.Processor<T, R> thenCompose(Function<? super T, ? extends CompletionStage<R>> fn,
+      int prefetch) {
+    return new AsyncMapProcessor<T, R>(t -> fn.apply(t).toCompletableFuture(), prefetch);
+  }
+
+  //Subscribes to the publisher and collects everything it emits, requesting batch items at a time.
+  public static <T> CompletableFuture<List<T>> toList(Flow.Publisher<T> publisher, int batch) {
+    ListSubscriber<T> subscriber = new ListSubscriber<>(batch);
+    publisher.subscribe(subscriber);
+    return subscriber.result;
+  }
+
+  private static IllegalArgumentException nonPositiveRequest(long n) {
+    return new IllegalArgumentException("Non-positive request: " + n);
+  }
+
+  private static void addDemand(AtomicLong requested, long n) {
+    requested.accumulateAndGet(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+  }
+
+  private static final class StreamSubscription<T> implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Stream<? extends T> stream;
+    private final Iterator<? extends T> items;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private long emitted;
+    private volatile boolean done;
+    //Set by a request(n) with n <= 0, and signalled from the drain loop like every other signal.
+    private volatile Throwable badRequest;
+
+    StreamSubscription(Flow.Subscriber<? super T> subscriber, Stream<? extends T> stream) {
+      this.subscriber = subscriber;
+      this.stream = stream;
+      this.items = stream.iterator();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        badRequest = nonPositiveRequest(n);
+      } else {
+        addDemand(requested, n);
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      if (!done) {
+        done = true;
+        stream.close();
+      }
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        Throwable error = badRequest;
+        if (error != null && !done) {
+          cancel();
+          subscriber.onError(error);
+          return;
+        }
+        while (!done && badRequest == null && emitted < requested.get()) {
+          T item;
+          try {
+            if (!items.hasNext()) {
+              cancel();
+              subscriber.onComplete();
+              return;
+            }
+            item = items.next();
+          } catch (RuntimeException e) {
+            cancel();
+            subscriber.onError(e);
+            return;
+          }
+          emitted++;
+          subscriber.onNext(item);
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+
+  //Only one downstream subscriber is supported, as with most processors that keep per-item state.
+  private static final class AsyncMapProcessor<T, R> implements Flow.Processor<T, R>, Flow.Subscription {
+
+    private final Function<? super T, ? extends CompletableFuture<R>> fn;
+    private final int prefetch;
+    private final Queue<CompletableFuture<R>> inFlight = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private long emitted;
+
+    //Guarded by this: whether a subscriber has claimed the processor.
+    private boolean subscribed;
+    private volatile Flow.Subscription upstream;
+    //Set once the subscriber's onSubscribe has returned, so that no other signal can reach it before that one.
+    private volatile Flow.Subscriber<? super R> downstream;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile Throwable badRequest;
+    private volatile boolean done;
+
+    AsyncMapProcessor(Function<? super T, ? extends CompletableFuture<R>> fn, int prefetch) {
+      if (prefetch < 1) {
+        throw new IllegalArgumentException("prefetch must be at least 1");
+      }
+      this.fn = fn;
+      this.prefetch = prefetch;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+      Objects.requireNonNull(subscriber);
+      boolean first;
+      synchronized (this) {
+        first = !subscribed;
+        subscribed = true;
+      }
+      if (!first) {
+        subscriber.onSubscribe(NO_DEMAND);
+        subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+        return;
+      }
+      subscriber.onSubscribe(this);
+      downstream = subscriber;
+      drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      if (upstream != null) {
+        subscription.cancel();
+        return;
+      }
+      upstream = subscription;
+      //Cancelled or failed before upstream arrived: the drain loop found no upstream to cancel.
+      if (done) {
+        subscription.cancel();
+        return;
+      }
+      subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(T item) {
+      CompletableFuture<R> cf;
+      try {
+        cf = fn.apply(item);
+      } catch (RuntimeException e) {
+        cf = CompletableFuture.failedFuture(e);
+      }
+      inFlight.add(cf);
+      cf.whenComplete((v, th) -> drain());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      upstreamError = throwable;
+      upstreamDone = true;
+      drain();
+    }
+
+    @Override
+    public void onComplete() {
+      upstreamDone = true;
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        badRequest = nonPositiveRequest(n);
+      } else {
+        addDemand(requested, n);
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+      Flow.Subscription s = upstream;
+      if (s != null) {
+        s.cancel();
+      }
+      drain();
+    }
+
+    //Emits completed results from the head of the queue while there is demand. A failed stage cancels upstream and
+    // the stages still in flight, and fails downstream; results behind it are dropped.
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        Flow.Subscriber<? super R> d = downstream;
+        Throwable error = badRequest;
+        if (error != null && !done && d != null) {
+          done = true;
+          Flow.Subscription up = upstream;
+          if (up != null) {
+            up.cancel();
+          }
+          d.onError(error);
+        }
+        if (done) {
+          inFlight.forEach(cf -> cf.cancel(true));
+          inFlight.clear();
+        } else if (d != null) {
+          emit(d);
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void emit(Flow.Subscriber<? super R> d) {
+      while (true) {
+        CompletableFuture<R> head = inFlight.peek();
+        if (head == null) {
+          if (upstreamDone) {
+            done = true;
+            Throwable error = upstreamError;
+            if (error == null) {
+              d.onComplete();
+            } else {
+              d.onError(error);
+            }
+          }
+          return;
+        }
+        if (!head.isDone() || emitted == requested.get()) {
+          return;
+        }
+        inFlight.poll();
+        R result;
+        try {
+          result = head.join();
+        } catch (CompletionException | CancellationException e) {
+          done = true;
+          upstream.cancel();
+          inFlight.forEach(cf -> cf.cancel(true));
+          inFlight.clear();
+          d.onError(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+          return;
+        }
+        emitted++;
+        d.onNext(result);
+        upstream.request(1);
+      }
+    }
+  }
+
+  private static final class ListSubscriber<T> implements Flow.Subscriber<T> {
+
+    final CompletableFuture<List<T>> result = new CompletableFuture<>();
+    private final List<T> items = new ArrayList<>();
+    private final int batch;
+    private Flow.Subscription subscription;
+    private int received;
+
+    ListSubscriber(int batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(batch);
+    }
+
+    //Subscriber calls are serialized and happen-before each other, so the plain fields are safe here.
+    @Override
+    public void onNext(T item) {
+      items.add(item);
+      if (++received == batch) {
+        received = 0;
+        subscription.request(batch);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      result.complete(items);
+    }
+  }
+}
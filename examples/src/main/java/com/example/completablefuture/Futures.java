@@ -0,0 +1,255 @@
+package com.example.completablefuture;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//Combinators over lists of futures, for the cases where CompletableFuture only offers pairs (thenCombine,
+// thenAcceptBoth) or untyped arrays (allOf, anyOf).
+public final class Futures {
+
+  //The order mapAsync() delivers its results in.
+  public enum Ordering {
+    //The order of the source stream. A slow item holds back the results behind it, while the calls after it keep going
+    // up to the in-flight limit.
+    INPUT,
+    //The order the calls complete in, so one slow call never holds back the others.
+    COMPLETION
+  }
+
+  private Futures() {
+  }
+
+  //Fan-in for any number of stages: completes with every result, in input order, once all inputs have completed, or
+  // exceptionally as soon as any of them fails. Each input gets one callback that writes its result straight into its
+  // slot, so there is no array copy of the inputs for allOf() and no join() per element afterwards.
+  //The returned list is fixed-size.
+  @SuppressWarnings("unchecked")
+  public static <T> CompletableFuture<List<T>> allAsList(List<? extends CompletableFuture<? extends T>> futures) {
+    int size = futures.size();
+    if (size == 0) {
+      return CompletableFuture.completedFuture(Collections.emptyList());
+    }
+    CompletableFuture<List<T>> result = new CompletableFuture<>();
+    Object[] values = new Object[size];
+    AtomicInteger remaining = new AtomicInteger(size);
+    int index = 0;
+    for (CompletableFuture<? extends T> cf : futures) {
+      int slot = index++;
+      cf.whenComplete((v, th) -> {
+        if (th != null) {
+          result.completeExceptionally(th);
+          return;
+        }
+        values[slot] = v;
+        //The decrement publishes every slot written before it to the thread that brings the count to zero.
+        if (remaining.decrementAndGet() == 0) {
+          result.complete((List<T>) Arrays.asList(values));
+        }
+      });
+    }
+    return result;
+  }
+
+  //Typed replacement for anyOf(): completes with the outcome of whichever input completes first, normal or not, and
+  // then cancels the other inputs. Like allAsList(), each input gets one callback, the same one for all of them, that
+  // completes the result directly, so there is no array copy for anyOf() and no cast of its Object result. The first
+  // callback to run cancels the losers, and once an input has decided the race the inputs after it get no callback.
+  //The callback goes on through handle() rather than whenComplete(): whenComplete() passes a loser's cancellation on to
+  // its own dependent stage wrapped in a new CompletionException, stack trace and all, where handle() completes that
+  // stage normally.
+  //As with anyOf(), an empty list gives a future that never completes.
+  public static <T> CompletableFuture<T> firstOf(List<? extends CompletableFuture<? extends T>> futures) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicBoolean decided = new AtomicBoolean();
+    BiFunction<T, Throwable, Void> first = (v, th) -> {
+      if (!decided.compareAndSet(false, true)) {
+        return null;
+      }
+      //Losers are cancelled before the result completes, so whoever sees the result also sees them cancelled.
+      LostRaceException lost = new LostRaceException();
+      for (CompletableFuture<? extends T> cf : futures) {
+        cf.completeExceptionally(lost);
+      }
+      if (th == null) {
+        result.complete(v);
+      } else {
+        result.completeExceptionally(th instanceof CompletionException && th.getCause() != null ? th.getCause() : th);
+      }
+      return null;
+    };
+    for (CompletableFuture<? extends T> cf : futures) {
+      if (decided.get()) {
+        break;
+      }
+      cf.handle(first);
+    }
+    return result;
+  }
+
+  //Maps a stream through an asynchronous call with at most maxInFlight calls outstanding, for sources too large to turn
+  // into a list of futures first. The returned stream is lazy: nothing is called until it is consumed, every result
+  // taken starts the next call, and consuming it blocks while the calls it is waiting for are still running.
+  //A failed call fails the stream with a CompletionException when its result is reached. Closing the stream cancels
+  // the calls still outstanding and closes the source.
+  public static <T, R> Stream<R> mapAsync(Stream<T> source, Function<? super T, ? extends CompletableFuture<R>> fn,
+      int maxInFlight, Ordering ordering) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1");
+    }
+    AsyncMapper<T, R> mapper = ordering == Ordering.INPUT
+        ? new InputOrderMapper<>(source.iterator(), fn, maxInFlight)
+        : new CompletionOrderMapper<>(source.iterator(), fn, maxInFlight);
+    return StreamSupport.stream(mapper, false).onClose(() -> {
+      mapper.cancel();
+      source.close();
+    });
+  }
+
+  public static <T, R> Stream<R> mapAsync(Stream<T> source, Function<? super T, ? extends CompletableFuture<R>> fn,
+      int maxInFlight) {
+    return mapAsync(source, fn, maxInFlight, Ordering.INPUT);
+  }
+
+  //Pulls from the source only from the consuming thread, so the mappers need no locking of their own.
+  private abstract static class AsyncMapper<T, R> extends Spliterators.AbstractSpliterator<R> {
+
+    private final Iterator<T> source;
+    private final Function<? super T, ? extends CompletableFuture<R>> fn;
+    private final int maxInFlight;
+
+    AsyncMapper(Iterator<T> source, Function<? super T, ? extends CompletableFuture<R>> fn, int maxInFlight,
+        int characteristics) {
+      super(Long.MAX_VALUE, characteristics);
+      this.source = source;
+      this.fn = fn;
+      this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super R> action) {
+      fill();
+      if (inFlight().isEmpty()) {
+        return false;
+      }
+      R result = take().join();
+      //Start the next call before handing out this result, so the consumer's own work overlaps with maxInFlight calls.
+      fill();
+      action.accept(result);
+      return true;
+    }
+
+    //The calls started but not yet taken.
+    abstract Collection<CompletableFuture<R>> inFlight();
+
+    abstract void started(CompletableFuture<R> cf);
+
+    //Removes and returns the next result to deliver, waiting for one to complete if needed.
+    abstract CompletableFuture<R> take();
+
+    void cancel() {
+      inFlight().forEach(cf -> cf.cancel(true));
+      inFlight().clear();
+    }
+
+    private void fill() {
+      while (inFlight().size() < maxInFlight && source.hasNext()) {
+        started(fn.apply(source.next()));
+      }
+    }
+  }
+
+  private static final class InputOrderMapper<T, R> extends AsyncMapper<T, R> {
+
+    private final ArrayDeque<CompletableFuture<R>> inFlight = new ArrayDeque<>();
+
+    InputOrderMapper(Iterator<T> source, Function<? super T, ? extends CompletableFuture<R>> fn, int maxInFlight) {
+      super(source, fn, maxInFlight, Spliterator.ORDERED);
+    }
+
+    @Override
+    Collection<CompletableFuture<R>> inFlight() {
+      return inFlight;
+    }
+
+    @Override
+    void started(CompletableFuture<R> cf) {
+      inFlight.add(cf);
+    }
+
+    @Override
+    CompletableFuture<R> take() {
+      return inFlight.poll();
+    }
+  }
+
+  private static final class CompletionOrderMapper<T, R> extends AsyncMapper<T, R> {
+
+    private final BlockingQueue<CompletableFuture<R>> completed = new LinkedBlockingQueue<>();
+    private final Set<CompletableFuture<R>> inFlight = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    CompletionOrderMapper(Iterator<T> source, Function<? super T, ? extends CompletableFuture<R>> fn,
+        int maxInFlight) {
+      super(source, fn, maxInFlight, 0);
+    }
+
+    @Override
+    Collection<CompletableFuture<R>> inFlight() {
+      return inFlight;
+    }
+
+    @Override
+    void started(CompletableFuture<R> cf) {
+      inFlight.add(cf);
+      cf.whenComplete((v, th) -> completed.add(cf));
+    }
+
+    @Override
+    CompletableFuture<R> take() {
+      try {
+        CompletableFuture<R> cf = completed.take();
+        inFlight.remove(cf);
+        return cf;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(e);
+      }
+    }
+  }
+
+  //What firstOf() cancels the losers of one race with. CancellationException has no constructor that turns off the
+  // stack trace, so it is left unfilled here instead: capturing one would cost more than the whole race for a handful
+  // of inputs, and it would only ever point here. Each race has its own instance, so nothing is shared between callers.
+  private static final class LostRaceException extends CancellationException {
+
+    private static final long serialVersionUID = 1L;
+
+    LostRaceException() {
+      super("Another input completed first");
+    }
+
+    @Override
+    public Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+//Hedged requests: the production version of applyToEitherExample's race.
+//call() starts the primary attempt and, only if it is still running once the operation's hedge delay has passed,
+// a backup attempt. Whichever outcome comes first completes the result and the other attempt is cancelled.
+//The hedge delay is the configured percentile of the operation's recent attempt latencies, so it follows the
+// backend: at the 95th percentile roughly one call in twenty sends a second request, and the tail beyond it is cut.
+//The backup attempt is started on the given executor rather than on the SharedTimer thread that fires the hedge, so
+// a supplier that takes a while to start its call cannot hold up every other timeout, retry and hedge.
+public final class Hedger {
+
+  private final double percentile;
+  private final long initialDelayNanos;
+  private final Executor executor;
+
+  private final ConcurrentHashMap<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder hedges = new LongAdder();
+
+  //initialDelay is the hedge delay used until an operation has enough latency samples of its own.
+  public Hedger(double percentile, long initialDelay, TimeUnit unit, Executor executor) {
+    this.percentile = percentile;
+    this.initialDelayNanos = unit.toNanos(initialDelay);
+    this.executor = executor;
+  }
+
+  //Starts backup attempts on the common pool.
+  public Hedger(double percentile, long initialDelay, TimeUnit unit) {
+    this(percentile, initialDelay, unit, ForkJoinPool.commonPool());
+  }
+
+  public <T> CompletableFuture<T> call(String operation, Supplier<? extends CompletableFuture<T>> attempt) {
+    calls.increment();
+    LatencyTracker tracker = trackers.computeIfAbsent(operation, k -> new LatencyTracker(1024));
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicReference<CompletableFuture<T>> backup = new AtomicReference<>();
+
+    CompletableFuture<T> primary = start(attempt, tracker, result);
+    ScheduledFuture<?> hedge = SharedTimer.schedule(() -> {
+      if (!result.isDone()) {
+        executor.execute(() -> startBackup(attempt, tracker, result, backup));
+      }
+    }, hedgeDelayNanos(tracker), TimeUnit.NANOSECONDS);
+
+    result.handle((v, th) -> {
+      hedge.cancel(false);
+      primary.cancel(true);
+      CompletableFuture<T> b = backup.get();
+      if (b != null) {
+        b.cancel(true);
+      }
+      return null;
+    });
+    return result;
+  }
+
+  //The delay call() would currently wait before hedging the given operation.
+  public long hedgeDelayNanos(String operation) {
+    LatencyTracker tracker = trackers.get(operation);
+    return tracker == null ? initialDelayNanos : hedgeDelayNanos(tracker);
+  }
+
+  public long calls() {
+    return calls.sum();
+  }
+
+  public long hedges() {
+    return hedges.sum();
+  }
+
+  private long hedgeDelayNanos(LatencyTracker tracker) {
+    return tracker.percentileNanos(percentile, initialDelayNanos);
+  }
+
+  private <T> void startBackup(Supplier<? extends CompletableFuture<T>> attempt, LatencyTracker tracker,
+      CompletableFuture<T> result, AtomicReference<CompletableFuture<T>> backup) {
+    if (result.isDone()) {
+      return;
+    }
+    hedges.increment();
+    backup.set(start(attempt, tracker, result));
+    //The result may have completed while the backup was starting, after the cleanup in call() already ran.
+    if (result.isDone()) {
+      backup.get().cancel(true);
+    }
+  }
+
+  //Every attempt records its own latency, including the ones cancelled after losing: their elapsed time is a lower
+  // bound of the real latency, and dropping them would pull the tracked tail, and with it the hedge delay, down.
+  private static <T> CompletableFuture<T> start(Supplier<? extends CompletableFuture<T>> attempt,
+      LatencyTracker tracker, CompletableFuture<T> result) {
+    long start = System.nanoTime();
+    CompletableFuture<T> cf = attempt.get();
+    cf.handle((v, th) -> {
+      tracker.record(System.nanoTime() - start);
+      if (th == null) {
+        result.complete(v);
+      } else {
+        result.completeExceptionally(th);
+      }
+      return null;
+    });
+    return cf;
+  }
+}
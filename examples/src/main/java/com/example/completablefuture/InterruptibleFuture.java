@@ -0,0 +1,126 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+//A CompletableFuture for blocking work that really stops when it is cancelled.
+//CompletableFuture.cancel() only completes the future: a supplier that is already running, such as delayedUpperCase
+// inside thenApplyAsync, keeps sleeping on its thread. InterruptibleFuture tracks the thread running its task, so
+// cancelling it before the task starts skips the task and cancelling it while the task runs interrupts that thread.
+//Completing it with any CancellationException counts as cancelling, which is how Futures.firstOf() stops its losers;
+// cancel(false) only skips a task that has not started.
+//thenApplyAsync() is the same for a stage in the middle of a pipeline: cancelled before its input arrives, the function
+// never runs. Cancelling it does not reach back to the input, just as with CompletableFuture.thenApplyAsync().
+//Dependents handed out by dependent() share the task, which is cancelled once every one of them has been cancelled.
+public final class InterruptibleFuture<T> extends CompletableFuture<T> {
+
+  private static final Object SKIPPED = new Object();
+  private static final Object INTERRUPTING = new Object();
+  private static final Object FINISHED = new Object();
+
+  //null before the task starts, then the running thread, then one of the markers above.
+  private final AtomicReference<Object> runner = new AtomicReference<>();
+  private final AtomicInteger liveDependents = new AtomicInteger();
+
+  //An executor that rejects the task fails the returned future with its RejectedExecutionException.
+  public static <T> InterruptibleFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+    InterruptibleFuture<T> cf = new InterruptibleFuture<>();
+    try {
+      executor.execute(() -> cf.run(supplier));
+    } catch (RejectedExecutionException e) {
+      cf.completeExceptionally(e);
+    }
+    return cf;
+  }
+
+  //Runs fn on the executor once source completes normally; a failed source, or an executor that rejects the task,
+  // fails the result with a CompletionException, as CompletableFuture.thenApplyAsync() does.
+  public static <T, U> InterruptibleFuture<U> thenApplyAsync(CompletionStage<T> source,
+      Function<? super T, ? extends U> fn, Executor executor) {
+    InterruptibleFuture<U> cf = new InterruptibleFuture<>();
+    source.whenComplete((v, th) -> {
+      if (th != null) {
+        cf.completeExceptionally(th instanceof CompletionException ? th : new CompletionException(th));
+      } else if (!cf.isDone()) {
+        try {
+          executor.execute(() -> cf.run(() -> fn.apply(v)));
+        } catch (RejectedExecutionException e) {
+          cf.completeExceptionally(new CompletionException(e));
+        }
+      }
+    });
+    return cf;
+  }
+
+  //A future completing like this one. Cancelling it cancels this one only once all dependents have been cancelled.
+  public CompletableFuture<T> dependent() {
+    liveDependents.incrementAndGet();
+    CompletableFuture<T> dependent = new CompletableFuture<>();
+    handle((v, th) -> th == null ? dependent.complete(v) : dependent.completeExceptionally(th));
+    dependent.handle((v, th) -> {
+      if (dependent.isCancelled() && liveDependents.decrementAndGet() == 0) {
+        cancel(true);
+      }
+      return null;
+    });
+    return dependent;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled) {
+      stop(mayInterruptIfRunning);
+    }
+    return cancelled;
+  }
+
+  @Override
+  public boolean completeExceptionally(Throwable ex) {
+    boolean completed = super.completeExceptionally(ex);
+    if (completed && ex instanceof CancellationException) {
+      stop(true);
+    }
+    return completed;
+  }
+
+  private void run(Supplier<T> supplier) {
+    Thread thread = Thread.currentThread();
+    if (!runner.compareAndSet(null, thread)) {
+      return;
+    }
+    try {
+      super.complete(supplier.get());
+    } catch (Throwable ex) {
+      super.completeExceptionally(ex);
+    } finally {
+      //If a cancel got hold of this thread, wait until its interrupt has landed and then clear it, so the pool
+      // thread does not carry it into its next task.
+      if (!runner.compareAndSet(thread, FINISHED)) {
+        while (runner.get() == INTERRUPTING) {
+          Thread.onSpinWait();
+        }
+        Thread.interrupted();
+      }
+    }
+  }
+
+  private void stop(boolean interrupt) {
+    if (runner.compareAndSet(null, SKIPPED) || !interrupt) {
+      return;
+    }
+    Object current = runner.get();
+    if (current instanceof Thread && runner.compareAndSet(current, INTERRUPTING)) {
+      ((Thread) current).interrupt();
+      runner.set(FINISHED);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.example.completablefuture;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Source of the simulated latency that the delayed stages wait for.
+//It is called from every pool thread at once, so implementations keep no shared mutable state: a single
+// java.util.Random makes every caller CAS on the same seed, which turns into contention once many async stages run.
+@FunctionalInterface
+public interface Jitter {
+
+  long nextDelayNanos();
+
+  //Uniform in [0, bound) from a SplittableRandom per thread, for when ThreadLocalRandom's stream is not wanted. The
+  // n-th thread to draw seeds its own with seed + n, so a new thread costs one atomic increment and no lock, on virtual
+  // threads too. Which thread gets which stream depends on the order the threads first draw in, so only a run that
+  // draws from a single thread is reproducible from the seed.
+  //For a plain uniform delay from ThreadLocalRandom, use LatencyModel.uniform().
+  static Jitter seeded(long seed, long bound, TimeUnit unit) {
+    long boundNanos = unit.toNanos(bound);
+    AtomicLong threads = new AtomicLong();
+    ThreadLocal<SplittableRandom> perThread =
+        ThreadLocal.withInitial(() -> new SplittableRandom(seed + threads.getAndIncrement()));
+    return () -> perThread.get().nextLong(boundNanos);
+  }
+}
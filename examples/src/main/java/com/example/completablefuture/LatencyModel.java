@@ -0,0 +1,153 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//Latency distributions for the delayed stages, so the example pipelines can stand in for a real backend.
+//Each model is a Jitter drawing from the caller's ThreadLocalRandom. The examples pick one at startup from the
+// examples.latency system property, in milliseconds:
+//  fixed:5  uniform:0:1000  exponential:50  lognormal:20:200 (p50 and p99)  replay:/path/to/histogram
+//A replay file has one "<upper bound> <count>" line per bucket, in increasing order, as exported by most histograms.
+public final class LatencyModel {
+
+  //The standard normal quantile at 0.99, used to fit a log-normal to a p50 and a p99.
+  private static final double Z_99 = 2.3263478740408408;
+
+  private LatencyModel() {
+  }
+
+  public static Jitter fixed(double delay, TimeUnit unit) {
+    long nanos = toNanos(delay, unit);
+    return () -> nanos;
+  }
+
+  public static Jitter uniform(double min, double max, TimeUnit unit) {
+    long minNanos = toNanos(min, unit);
+    long maxNanos = toNanos(max, unit);
+    if (maxNanos <= minNanos) {
+      throw new IllegalArgumentException("max must be greater than min");
+    }
+    return () -> ThreadLocalRandom.current().nextLong(minNanos, maxNanos);
+  }
+
+  public static Jitter exponential(double mean, TimeUnit unit) {
+    double meanNanos = toNanos(mean, unit);
+    return () -> (long) (-meanNanos * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+  }
+
+  //A log-normal with the given median and p99: a body around the median and a long right tail, which is the shape
+  // most service latencies have. Its p999 follows from the other two; use replay() to pin it down as well.
+  public static Jitter logNormal(double p50, double p99, TimeUnit unit) {
+    if (p99 <= p50) {
+      throw new IllegalArgumentException("p99 must be greater than p50");
+    }
+    double mu = Math.log(toNanos(p50, unit));
+    double sigma = (Math.log(toNanos(p99, unit)) - mu) / Z_99;
+    return () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+  }
+
+  //Replays a recorded histogram: a bucket is picked with probability proportional to its count, then a value uniformly
+  // within it. upperBounds must be positive and strictly increasing, and counts non-negative; the first bucket starts
+  // at zero.
+  public static Jitter replay(double[] upperBounds, long[] counts, TimeUnit unit) {
+    if (upperBounds.length == 0 || upperBounds.length != counts.length) {
+      throw new IllegalArgumentException("Need one count per bucket");
+    }
+    long[] bounds = new long[upperBounds.length];
+    long[] cumulative = new long[counts.length];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      bounds[i] = toNanos(upperBounds[i], unit);
+      if (bounds[i] <= (i == 0 ? 0 : bounds[i - 1])) {
+        throw new IllegalArgumentException("Bucket bounds must be positive and strictly increasing: " + upperBounds[i]);
+      }
+      if (counts[i] < 0) {
+        throw new IllegalArgumentException("Bucket counts must not be negative: " + counts[i]);
+      }
+      total += counts[i];
+      cumulative[i] = total;
+    }
+    if (total <= 0) {
+      throw new IllegalArgumentException("Histogram is empty");
+    }
+    long totalCount = total;
+    return () -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int bucket = Arrays.binarySearch(cumulative, random.nextLong(totalCount) + 1);
+      if (bucket < 0) {
+        bucket = -bucket - 1;
+      }
+      //Empty buckets repeat the cumulative count of the bucket before them; the draw belongs to the first one.
+      while (bucket > 0 && cumulative[bucket - 1] == cumulative[bucket]) {
+        bucket--;
+      }
+      long low = bucket == 0 ? 0 : bounds[bucket - 1];
+      return low + random.nextLong(bounds[bucket] - low);
+    };
+  }
+
+  public static Jitter parse(String spec) {
+    String[] parts = spec.trim().split(":", 2);
+    String kind = parts[0].toLowerCase(Locale.ROOT);
+    String[] args = parts.length > 1 ? parts[1].split(":") : new String[0];
+    TimeUnit ms = TimeUnit.MILLISECONDS;
+    switch (kind) {
+      case "fixed":
+        expect(spec, args, 1);
+        return fixed(Double.parseDouble(args[0]), ms);
+      case "uniform":
+        expect(spec, args, 2);
+        return uniform(Double.parseDouble(args[0]), Double.parseDouble(args[1]), ms);
+      case "exponential":
+        expect(spec, args, 1);
+        return exponential(Double.parseDouble(args[0]), ms);
+      case "lognormal":
+        expect(spec, args, 2);
+        return logNormal(Double.parseDouble(args[0]), Double.parseDouble(args[1]), ms);
+      case "replay":
+        return replay(parts.length > 1 ? parts[1] : "", ms);
+      default:
+        throw new IllegalArgumentException("Unknown latency model: " + spec);
+    }
+  }
+
+  static Jitter fromSystemProperties() {
+    return parse(System.getProperty("examples.latency", "uniform:0:1000"));
+  }
+
+  private static Jitter replay(String path, TimeUnit unit) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(path));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read histogram " + path, e);
+    }
+    String[] rows = lines.stream().map(String::trim).filter(l -> !l.isEmpty() && !l.startsWith("#"))
+        .toArray(String[]::new);
+    double[] upperBounds = new double[rows.length];
+    long[] counts = new long[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      String[] cols = rows[i].split("\\s+");
+      upperBounds[i] = Double.parseDouble(cols[0]);
+      counts[i] = Long.parseLong(cols[1]);
+    }
+    return replay(upperBounds, counts, unit);
+  }
+
+  private static void expect(String spec, String[] args, int count) {
+    if (args.length != count) {
+      throw new IllegalArgumentException("Expected " + count + " parameter(s) in latency model: " + spec);
+    }
+  }
+
+  private static long toNanos(double value, TimeUnit unit) {
+    return (long) (value * unit.toNanos(1));
+  }
+}
@@ -0,0 +1,74 @@
+package com.example.completablefuture;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Keeps the most recent latencies of one operation and answers percentile queries over them.
+//Recording is a getAndIncrement plus a store into a ring of samples, so it never blocks. Percentiles need a sorted
+// copy of the ring, so the last answer is cached and only recomputed after another REFRESH_EVERY samples.
+public final class LatencyTracker {
+
+  private static final int MIN_SAMPLES = 20;
+  private static final int REFRESH_EVERY = 64;
+
+  private final AtomicLongArray samples;
+  private final int mask;
+  private final AtomicLong count = new AtomicLong();
+
+  private volatile Cached cached;
+
+  //capacity is rounded up to a power of two.
+  public LatencyTracker(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, MIN_SAMPLES) - 1) << 1;
+    this.samples = new AtomicLongArray(size);
+    this.mask = size - 1;
+  }
+
+  public void record(long nanos) {
+    long n = count.getAndIncrement();
+    samples.set((int) (n & mask), nanos);
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  //The given percentile (0 to 100) of the recent samples, or fallbackNanos while there are too few samples to tell.
+  public long percentileNanos(double percentile, long fallbackNanos) {
+    long n = count.get();
+    if (n < MIN_SAMPLES) {
+      return fallbackNanos;
+    }
+    Cached c = cached;
+    if (c == null || c.percentile != percentile || n - c.count >= REFRESH_EVERY) {
+      c = new Cached(percentile, n, compute(percentile, n));
+      cached = c;
+    }
+    return c.nanos;
+  }
+
+  private long compute(double percentile, long n) {
+    int size = (int) Math.min(n, samples.length());
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = samples.get(i);
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * size) - 1;
+    return sorted[Math.max(0, Math.min(index, size - 1))];
+  }
+
+  private static final class Cached {
+
+    final double percentile;
+    final long count;
+    final long nanos;
+
+    Cached(double percentile, long count, long nanos) {
+      this.percentile = percentile;
+      this.count = count;
+      this.nanos = nanos;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+//Coalesces single-item calls into batched ones, for backends that are much cheaper per item in bulk.
+//submit() adds the item to the open batch and returns that item's own future. A batch is sent as soon as it holds
+// maxBatchSize items, or when the window has passed since its first item, whichever comes first; the window is one
+// SharedTimer entry per batch. The batched call gets the items in submission order and must complete with one result
+// per item, in the same order. If it fails, or breaks that contract by returning null or the wrong number of results,
+// every item of the batch fails with it.
+//The open batch is guarded by a lock held only to add an item or swap the batch out; the call itself is made outside
+// it, on the thread that filled the batch or, when the window runs out, on the given executor. The timer entry only
+// hands the batch to that executor, so a slow batch call cannot hold up every other timeout, retry and hedge.
+public final class MicroBatcher<T, R> {
+
+  private final Function<? super List<T>, ? extends CompletableFuture<? extends List<? extends R>>> batchCall;
+  private final int maxBatchSize;
+  private final long windowNanos;
+  private final Executor executor;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder items = new LongAdder();
+
+  private Batch<T, R> open;
+
+  public MicroBatcher(Function<? super List<T>, ? extends CompletableFuture<? extends List<? extends R>>> batchCall,
+      int maxBatchSize, long window, TimeUnit unit, Executor executor) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be at least 1");
+    }
+    this.batchCall = batchCall;
+    this.maxBatchSize = maxBatchSize;
+    this.windowNanos = unit.toNanos(window);
+    this.executor = executor;
+  }
+
+  //Sends batches whose window ran out from the common pool.
+  public MicroBatcher(Function<? super List<T>, ? extends CompletableFuture<? extends List<? extends R>>> batchCall,
+      int maxBatchSize, long window, TimeUnit unit) {
+    this(batchCall, maxBatchSize, window, unit, ForkJoinPool.commonPool());
+  }
+
+  public CompletableFuture<R> submit(T item) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    Batch<T, R> full = null;
+    Batch<T, R> started = null;
+    synchronized (this) {
+      if (open == null) {
+        open = new Batch<>(maxBatchSize);
+        started = open;
+      }
+      open.add(item, result);
+      if (open.size() == maxBatchSize) {
+        full = open;
+        open = null;
+      }
+    }
+    items.increment();
+    if (full != null) {
+      send(full);
+    } else if (started != null) {
+      Batch<T, R> batch = started;
+      batch.window = SharedTimer.schedule(() -> executor.execute(() -> expire(batch)), windowNanos,
+          TimeUnit.NANOSECONDS);
+    }
+    return result;
+  }
+
+  public long batches() {
+    return batches.sum();
+  }
+
+  public long items() {
+    return items.sum();
+  }
+
+  private void expire(Batch<T, R> batch) {
+    synchronized (this) {
+      if (open != batch) {
+        //Filled up and sent before its window ran out.
+        return;
+      }
+      open = null;
+    }
+    send(batch);
+  }
+
+  private void send(Batch<T, R> batch) {
+    ScheduledFuture<?> window = batch.window;
+    if (window != null) {
+      window.cancel(false);
+    }
+    batches.increment();
+    CompletableFuture<? extends List<? extends R>> call;
+    try {
+      call = batchCall.apply(batch.items);
+    } catch (RuntimeException e) {
+      batch.fail(e);
+      return;
+    }
+    if (call == null) {
+      batch.fail(new IllegalStateException("Batch call returned null instead of a future"));
+      return;
+    }
+    call.whenComplete((results, th) -> {
+      if (th != null) {
+        batch.fail(th);
+      } else if (results == null || results.size() != batch.size()) {
+        batch.fail(new IllegalStateException("Batch of " + batch.size() + " items completed with "
+            + (results == null ? "null" : results.size() + " results")));
+      } else {
+        for (int i = 0; i < results.size(); i++) {
+          batch.callers.get(i).complete(results.get(i));
+        }
+      }
+    });
+  }
+
+  private static final class Batch<T, R> {
+
+    final List<T> items;
+    final List<CompletableFuture<R>> callers;
+    //Set by the thread that opened the batch right after opening it; a batch that fills up first is sent without it
+    // and the timer entry finds it already gone.
+    volatile ScheduledFuture<?> window;
+
+    Batch(int capacity) {
+      items = new ArrayList<>(capacity);
+      callers = new ArrayList<>(capacity);
+    }
+
+    void add(T item, CompletableFuture<R> caller) {
+      items.add(item);
+      callers.add(caller);
+    }
+
+    int size() {
+      return items.size();
+    }
+
+    void fail(Throwable th) {
+      callers.forEach(cf -> cf.completeExceptionally(th));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//A token bucket of burst permits refilled at a fixed rate, as the generic cell rate algorithm (GCRA): instead of a
+// token count and a refill timestamp the whole state is one AtomicLong, the theoretical arrival time at which the
+// bucket would be full again. A permit moves it on by one emission interval and is free once it is no more than the
+// burst tolerance ahead of now, so refilling is implicit and taking a permit is a single compareAndSet.
+//acquire() never blocks: a permit that is not free yet is reserved anyway and its future is completed by the
+// SharedTimer when the permit comes due. Cancelling that future does not give the reservation back.
+public final class RateLimiter {
+
+  //Returned for every permit that is free at once; a completed future cannot be cancelled or completed again.
+  private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  private final AtomicLong theoreticalArrival;
+
+  private final LongAdder granted = new LongAdder();
+  private final LongAdder delayed = new LongAdder();
+
+  public RateLimiter(double permitsPerSecond, int burst) {
+    if (permitsPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("Need a positive rate and a burst of at least 1");
+    }
+    this.intervalNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    this.toleranceNanos = intervalNanos * (burst - 1);
+    this.theoreticalArrival = new AtomicLong(System.nanoTime());
+  }
+
+  //Completes when the permit is due: at once while the bucket has tokens left.
+  public CompletableFuture<Void> acquire() {
+    long now = System.nanoTime();
+    long tat;
+    long waitNanos;
+    do {
+      tat = theoreticalArrival.get();
+      waitNanos = tat - now - toleranceNanos;
+    } while (!theoreticalArrival.compareAndSet(tat, Math.max(tat, now) + intervalNanos));
+    granted.increment();
+    if (waitNanos <= 0) {
+      return GRANTED;
+    }
+    delayed.increment();
+    return SharedTimer.delay(waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  //Takes a permit only if one is free right now.
+  public boolean tryAcquire() {
+    long now = System.nanoTime();
+    long tat;
+    do {
+      tat = theoreticalArrival.get();
+      if (tat - now > toleranceNanos) {
+        return false;
+      }
+    } while (!theoreticalArrival.compareAndSet(tat, Math.max(tat, now) + intervalNanos));
+    granted.increment();
+    return true;
+  }
+
+  public long granted() {
+    return granted.sum();
+  }
+
+  //Permits handed out with a wait, because the bucket was empty.
+  public long delayed() {
+    return delayed.sum();
+  }
+}
@@ -0,0 +1,149 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+//Retries a failing asynchronous call, waiting on the SharedTimer between attempts instead of sleeping a thread.
+//The waits grow with decorrelated jitter: each one is drawn uniformly between the base delay and three times the
+// previous wait, capped at the maximum, which spreads retrying callers apart better than plain exponential backoff.
+//Only failures the predicate accepts are retried, up to maxAttempts attempts in all. On top of that every retry must be
+// paid for from a shared budget: each call adds budgetRatio of a token, up to maxTokens, and each retry takes a whole
+// one. With a ratio of 0.1, retries stay within about a tenth of the calls however badly the backend is failing, so a
+// struggling backend is not buried under retries.
+//Retried attempts are started on the given executor: the timer entry that ends each wait only hands the attempt over,
+// so a supplier that takes a while to start its call cannot hold up every other timeout, retry and hedge.
+public final class Retry {
+
+  private static final long MILLI_TOKENS_PER_TOKEN = 1000;
+
+  private final int maxAttempts;
+  private final long baseDelayNanos;
+  private final long maxDelayNanos;
+  private final long depositMilliTokens;
+  private final long maxMilliTokens;
+  private final Predicate<? super Throwable> retryable;
+  private final Executor executor;
+
+  private final AtomicLong milliTokens;
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder budgetExhausted = new LongAdder();
+
+  //maxTokens caps the budget, and so the burst of retries it allows after a quiet spell. The budget starts full, so a
+  // quiet service can retry its first few failures.
+  public Retry(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit, double budgetRatio, int maxTokens,
+      Predicate<? super Throwable> retryable, Executor executor) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be at least 1");
+    }
+    if (maxDelay < baseDelay) {
+      throw new IllegalArgumentException("maxDelay must not be less than baseDelay");
+    }
+    if (maxTokens < 0) {
+      throw new IllegalArgumentException("maxTokens must not be negative");
+    }
+    this.maxAttempts = maxAttempts;
+    this.baseDelayNanos = unit.toNanos(baseDelay);
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.depositMilliTokens = Math.round(budgetRatio * MILLI_TOKENS_PER_TOKEN);
+    this.maxMilliTokens = maxTokens * MILLI_TOKENS_PER_TOKEN;
+    this.milliTokens = new AtomicLong(maxMilliTokens);
+    this.retryable = retryable;
+    this.executor = executor;
+  }
+
+  //Starts retried attempts on the common pool.
+  public Retry(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit, double budgetRatio, int maxTokens,
+      Predicate<? super Throwable> retryable) {
+    this(maxAttempts, baseDelay, maxDelay, unit, budgetRatio, maxTokens, retryable, ForkJoinPool.commonPool());
+  }
+
+  //Completes with the first successful attempt, or with the failure of the last one. Cancelling the result cancels
+  // the attempt in flight and any retry not yet started.
+  public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<? extends T>> attempt) {
+    calls.increment();
+    deposit();
+    CompletableFuture<T> result = new CompletableFuture<>();
+    attempt(attempt, result, 1, baseDelayNanos);
+    return result;
+  }
+
+  public long calls() {
+    return calls.sum();
+  }
+
+  public long retries() {
+    return retries.sum();
+  }
+
+  //Failures that could have been retried but were not, for lack of budget.
+  public long budgetExhausted() {
+    return budgetExhausted.sum();
+  }
+
+  private <T> void attempt(Supplier<? extends CompletableFuture<? extends T>> supplier, CompletableFuture<T> result,
+      int attempt, long previousDelayNanos) {
+    if (result.isDone()) {
+      return;
+    }
+    CompletableFuture<? extends T> cf;
+    try {
+      cf = supplier.get();
+    } catch (RuntimeException e) {
+      cf = CompletableFuture.failedFuture(e);
+    }
+    CompletableFuture<? extends T> current = cf;
+    result.whenComplete((v, th) -> current.cancel(true));
+    current.whenComplete((v, th) -> {
+      if (th == null) {
+        result.complete(v);
+        return;
+      }
+      Throwable cause = th instanceof CompletionException && th.getCause() != null ? th.getCause() : th;
+      if (attempt >= maxAttempts || result.isDone() || !retryable.test(cause)) {
+        result.completeExceptionally(cause);
+        return;
+      }
+      if (!withdraw()) {
+        budgetExhausted.increment();
+        result.completeExceptionally(cause);
+        return;
+      }
+      retries.increment();
+      long delay = nextDelayNanos(previousDelayNanos);
+      SharedTimer.schedule(() -> executor.execute(() -> attempt(supplier, result, attempt + 1, delay)), delay,
+          TimeUnit.NANOSECONDS);
+    });
+  }
+
+  private long nextDelayNanos(long previousDelayNanos) {
+    long upper = Math.max(baseDelayNanos + 1, Math.min(maxDelayNanos, previousDelayNanos * 3));
+    return Math.min(maxDelayNanos, ThreadLocalRandom.current().nextLong(baseDelayNanos, upper + 1));
+  }
+
+  private void deposit() {
+    if (milliTokens.get() < maxMilliTokens) {
+      milliTokens.accumulateAndGet(depositMilliTokens, (tokens, add) -> Math.min(maxMilliTokens, tokens + add));
+    }
+  }
+
+  private boolean withdraw() {
+    long tokens;
+    do {
+      tokens = milliTokens.get();
+      if (tokens < MILLI_TOKENS_PER_TOKEN) {
+        return false;
+      }
+    } while (!milliTokens.compareAndSet(tokens, tokens - MILLI_TOKENS_PER_TOKEN));
+    return true;
+  }
+}
@@ -0,0 +1,46 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//A single daemon timer thread for every timed completion in the examples.
+//delay() hands back a CompletableFuture that the timer completes once the delay has passed, so simulated latency is
+// a queued timer entry rather than a thread parked in Thread.sleep. Dependent non-async stages of that future run on
+// the timer thread itself, so anything heavier than a few string operations should be chained with an *Async method.
+public final class SharedTimer {
+
+  private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+  private SharedTimer() {
+  }
+
+  public static CompletableFuture<Void> delay(long delay, TimeUnit unit) {
+    CompletableFuture<Void> cf = new CompletableFuture<>();
+    ScheduledFuture<?> task = TIMER.schedule(() -> cf.complete(null), delay, unit);
+    cf.whenComplete((v, th) -> {
+      if (cf.isCancelled()) {
+        task.cancel(false);
+      }
+    });
+    return cf;
+  }
+
+  //For callers that need to run their own action on the timer (timeouts, retries, hedges) instead of completing a
+  // future. The action must be short: it runs on the one timer thread.
+  public static ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit) {
+    return TIMER.schedule(action, delay, unit);
+  }
+
+  private static ScheduledThreadPoolExecutor createTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "shared-timer");
+      t.setDaemon(true);
+      return t;
+    });
+    //Cancelled delays are dropped from the queue straight away instead of waiting for their deadline.
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+}
@@ -0,0 +1,59 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+//Request coalescing: concurrent calls for the same key share one in-flight computation instead of each starting its own.
+//The first caller for a key puts an empty promise in the map with putIfAbsent() and starts the computation; everyone
+// who arrives while it runs finds the promise and waits on it. The entry is removed, with remove(key, promise) so a
+// newer entry is never touched, just before the promise completes, so only in-flight work is shared and the next call
+// after that computes afresh. computeIfAbsent() is avoided on purpose: the computation would run while holding the
+// map's bin lock, and a computation that calls back into the same map could deadlock or fail with a recursive update.
+//Each caller gets its own copy() of the shared promise, so one caller cancelling gives up only its own wait.
+public final class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder shared = new LongAdder();
+
+  public CompletableFuture<V> call(K key, Function<? super K, ? extends CompletableFuture<? extends V>> fn) {
+    CompletableFuture<V> promise = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, promise);
+    if (existing != null) {
+      shared.increment();
+      return existing.copy();
+    }
+    calls.increment();
+    try {
+      fn.apply(key).whenComplete((v, th) -> {
+        inFlight.remove(key, promise);
+        if (th != null) {
+          promise.completeExceptionally(th);
+        } else {
+          promise.complete(v);
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlight.remove(key, promise);
+      promise.completeExceptionally(e);
+    }
+    return promise.copy();
+  }
+
+  //Calls that started a computation of their own.
+  public long calls() {
+    return calls.sum();
+  }
+
+  //Calls that joined one already in flight, each one a computation saved.
+  public long shared() {
+    return shared.sum();
+  }
+
+  public int inFlight() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,328 @@
+package com.example.completablefuture;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//The Executor every asynchronous stage of the examples runs on.
+//CompletableFuture falls back to ForkJoinPool.commonPool() when no Executor is given, and that pool is shared with
+// parallel streams and everything else in the JVM. The mode is picked once at startup from the examples.executor
+// system property (common, forkjoin, fixed or virtual) and examples.threads sizes the pools that have a size.
+//metrics() and the StageExecutorMXBean it implements report on the executor. Submissions and rejections are counted in
+// LongAdders and the gauges only read counters the pools keep anyway, so none of it takes a lock; in particular
+// ThreadPoolExecutor.getActiveCount(), which takes the pool's main lock, is not used.
+public final class StageExecutor implements Executor, StageExecutorMXBean {
+
+  public enum Mode {
+    COMMON_POOL, FORK_JOIN_POOL, FIXED_THREAD_POOL, VIRTUAL_THREAD_PER_TASK
+  }
+
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  private final Mode mode;
+  private final Executor delegate;
+  private final Predicate<Thread> ownsThread;
+  private final Gauges gauges;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  private volatile ObjectName mbeanName;
+
+  private StageExecutor(Mode mode, Executor delegate, Predicate<Thread> ownsThread, Gauges gauges) {
+    this.mode = mode;
+    this.delegate = delegate;
+    this.ownsThread = ownsThread;
+    this.gauges = gauges;
+  }
+
+  //Wrapping the common pool (rather than passing it straight to the *Async methods) also stops CompletableFuture from
+  // swapping it for a thread-per-task executor on machines where the common pool has a parallelism of one.
+  public static StageExecutor commonPool() {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    return new StageExecutor(Mode.COMMON_POOL, pool, t -> isWorkerOf(t, pool), forkJoinGauges(pool));
+  }
+
+  public static StageExecutor forkJoinPool(int parallelism) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+      ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      t.setName("stage-fj-" + t.getPoolIndex());
+      return t;
+    }, null, true);
+    return new StageExecutor(Mode.FORK_JOIN_POOL, pool, t -> isWorkerOf(t, pool), forkJoinGauges(pool));
+  }
+
+  //Pool threads are daemons, like the ForkJoinPool ones, so a forgotten shutdown() never keeps the JVM alive.
+  public static StageExecutor fixedThreadPool(int threads) {
+    ThreadGroup group = new ThreadGroup("stage-pool");
+    AtomicInteger count = new AtomicInteger();
+    //Threads alive right now; count only numbers them, and goes on rising as workers that died are replaced.
+    AtomicInteger live = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Runnable counted = () -> {
+        live.incrementAndGet();
+        try {
+          r.run();
+        } finally {
+          live.decrementAndGet();
+        }
+      };
+      Thread t = new Thread(group, counted, "stage-pool-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+    MeteredThreadPool pool = new MeteredThreadPool(threads, factory);
+    return new StageExecutor(Mode.FIXED_THREAD_POOL, pool, t -> t.getThreadGroup() == group, new Gauges() {
+      public long activeThreads() {
+        return pool.active.sum();
+      }
+
+      public long queuedTasks() {
+        return pool.queue.size();
+      }
+
+      public long poolSize() {
+        return live.get();
+      }
+    });
+  }
+
+  //Each stage gets its own virtual thread, so a stage blocked in Thread.sleep unmounts from its carrier instead of
+  // pinning a pool thread, and thousands of blocking stages can be in flight at once.
+  //There is no queue: every task gets a thread immediately, and the active count is kept around each task.
+  public static StageExecutor virtualThreadPerTask() {
+    ThreadFactory factory = Thread.ofVirtual().name("stage-vt-", 0).factory();
+    ExecutorService threads = Executors.newThreadPerTaskExecutor(factory);
+    LongAdder active = new LongAdder();
+    Executor counted = new Executor() {
+      public void execute(Runnable task) {
+        threads.execute(() -> {
+          active.increment();
+          try {
+            task.run();
+          } finally {
+            active.decrement();
+          }
+        });
+      }
+    };
+    return new StageExecutor(Mode.VIRTUAL_THREAD_PER_TASK, counted, Thread::isVirtual, new Gauges() {
+      public long activeThreads() {
+        return active.sum();
+      }
+
+      public long poolSize() {
+        return active.sum();
+      }
+
+      public void shutdown() {
+        threads.shutdown();
+      }
+    });
+  }
+
+  public static StageExecutor create(String mode, int threads) {
+    switch (mode.toLowerCase(Locale.ROOT)) {
+      case "common":
+        return commonPool();
+      case "forkjoin":
+        return forkJoinPool(threads);
+      case "fixed":
+        return fixedThreadPool(threads);
+      case "virtual":
+        return virtualThreadPerTask();
+      default:
+        throw new IllegalArgumentException("Unknown executor mode: " + mode);
+    }
+  }
+
+  static StageExecutor fromSystemProperties() {
+    int threads = Integer.getInteger("examples.threads", Runtime.getRuntime().availableProcessors());
+    StageExecutor executor = create(System.getProperty("examples.executor", "common"), threads);
+    executor.registerMBean();
+    return executor;
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  //True when the given thread belongs to this executor, which is what the examples assert from inside their stages.
+  public boolean runsOn(Thread thread) {
+    return ownsThread.test(thread);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    submitted.increment();
+    try {
+      delegate.execute(command);
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw e;
+    }
+  }
+
+  //The common pool is never shut down; every other mode owns its threads.
+  public void shutdown() {
+    if (mode != Mode.COMMON_POOL) {
+      if (delegate instanceof ExecutorService) {
+        ((ExecutorService) delegate).shutdown();
+      }
+      gauges.shutdown();
+    }
+    ObjectName name = mbeanName;
+    if (name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (JMException e) {
+        // already gone
+      }
+    }
+  }
+
+  //Registers this executor with the platform MBean server as
+  // com.example.completablefuture:type=StageExecutor,name=<mode>-<n>, and returns that name.
+  public ObjectName registerMBean() {
+    try {
+      ObjectName name = new ObjectName("com.example.completablefuture:type=StageExecutor,name="
+          + mode.name().toLowerCase(Locale.ROOT) + "-" + INSTANCES.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      mbeanName = name;
+      return name;
+    } catch (JMException e) {
+      throw new IllegalStateException("Cannot register " + this, e);
+    }
+  }
+
+  public ExecutorMetrics metrics() {
+    return new ExecutorMetrics(mode, gauges.poolSize(), gauges.activeThreads(), gauges.queuedTasks(),
+        gauges.steals(), submitted.sum(), rejected.sum());
+  }
+
+  @Override
+  public String getMode() {
+    return mode.name();
+  }
+
+  @Override
+  public long getPoolSize() {
+    return gauges.poolSize();
+  }
+
+  @Override
+  public long getActiveThreads() {
+    return gauges.activeThreads();
+  }
+
+  @Override
+  public long getQueuedTasks() {
+    return gauges.queuedTasks();
+  }
+
+  @Override
+  public long getStealCount() {
+    return gauges.steals();
+  }
+
+  @Override
+  public long getSubmittedTasks() {
+    return submitted.sum();
+  }
+
+  @Override
+  public long getRejectedTasks() {
+    return rejected.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "StageExecutor[" + mode + "]";
+  }
+
+  private static boolean isWorkerOf(Thread thread, ForkJoinPool pool) {
+    return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool;
+  }
+
+  //The ForkJoinPool getters read the pool's control word and scan its work queues without locking.
+  private static Gauges forkJoinGauges(ForkJoinPool pool) {
+    return new Gauges() {
+      public long activeThreads() {
+        return pool.getActiveThreadCount();
+      }
+
+      public long queuedTasks() {
+        return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+      }
+
+      public long steals() {
+        return pool.getStealCount();
+      }
+
+      public long poolSize() {
+        return pool.getPoolSize();
+      }
+    };
+  }
+
+  //What each mode can report about itself; steals only exist in work-stealing pools.
+  private interface Gauges {
+
+    long activeThreads();
+
+    default long queuedTasks() {
+      return 0;
+    }
+
+    default long steals() {
+      return 0;
+    }
+
+    long poolSize();
+
+    default void shutdown() {
+    }
+  }
+
+  //A fixed pool that counts running tasks itself, in beforeExecute/afterExecute, instead of through getActiveCount().
+  private static final class MeteredThreadPool extends ThreadPoolExecutor {
+
+    final LongAdder active = new LongAdder();
+    final BlockingQueue<Runnable> queue;
+
+    MeteredThreadPool(int threads, ThreadFactory factory) {
+      this(threads, factory, new LinkedBlockingQueue<>());
+    }
+
+    private MeteredThreadPool(int threads, ThreadFactory factory, BlockingQueue<Runnable> queue) {
+      super(threads, threads, 0, TimeUnit.MILLISECONDS, queue, factory);
+      this.queue = queue;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      active.increment();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+      active.decrement();
+    }
+  }
+}
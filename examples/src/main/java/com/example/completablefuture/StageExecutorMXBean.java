@@ -0,0 +1,19 @@
+package com.example.completablefuture;
+
+//The JMX view of a StageExecutor, for watching from jconsole whether the pool behind the async examples is saturated.
+public interface StageExecutorMXBean {
+
+  String getMode();
+
+  long getPoolSize();
+
+  long getActiveThreads();
+
+  long getQueuedTasks();
+
+  long getStealCount();
+
+  long getSubmittedTasks();
+
+  long getRejectedTasks();
+}
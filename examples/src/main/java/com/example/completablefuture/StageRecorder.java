@@ -0,0 +1,170 @@
+package com.example.completablefuture;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+//Per-stage latency histograms, to see where the time goes in chains like thenComposeExample.
+//Each method mirrors the CompletableFuture method of the same name and takes a stage name. Every run of the stage
+// records its execution time: the function itself or, for thenCompose, until the composed stage completes. The Async
+// variants also record queueing delay, from the moment the stage could run to the moment its function started on the
+// executor; the other variants run inline in the completing thread and have no queue to wait in.
+//Values go into HdrHistogram Recorders, whose writes are wait-free; only snapshot() takes a lock.
+public final class StageRecorder {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final ConcurrentHashMap<String, StageHistograms> stages = new ConcurrentHashMap<>();
+
+  public <T, U> CompletableFuture<U> thenApply(String stage, CompletableFuture<T> cf,
+      Function<? super T, ? extends U> fn) {
+    StageHistograms h = histograms(stage);
+    return cf.thenApply(timed(h, fn));
+  }
+
+  public <T, U> CompletableFuture<U> thenApplyAsync(String stage, CompletableFuture<T> cf,
+      Function<? super T, ? extends U> fn, Executor executor) {
+    StageHistograms h = histograms(stage);
+    return cf.thenApplyAsync(timed(h, fn), queued(h, executor));
+  }
+
+  public <T, U> CompletableFuture<U> thenCompose(String stage, CompletableFuture<T> cf,
+      Function<? super T, ? extends CompletionStage<U>> fn) {
+    StageHistograms h = histograms(stage);
+    return cf.thenCompose(v -> {
+      long start = System.nanoTime();
+      return fn.apply(v).whenComplete((u, th) -> h.execution.recordValue(System.nanoTime() - start));
+    });
+  }
+
+  public <T, U, V> CompletableFuture<V> thenCombine(String stage, CompletableFuture<T> cf,
+      CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+    StageHistograms h = histograms(stage);
+    return cf.thenCombine(other, timed(h, fn));
+  }
+
+  public <T, U, V> CompletableFuture<V> thenCombineAsync(String stage, CompletableFuture<T> cf,
+      CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+    StageHistograms h = histograms(stage);
+    return cf.thenCombineAsync(other, timed(h, fn), queued(h, executor));
+  }
+
+  public <T, U> CompletableFuture<U> applyToEither(String stage, CompletableFuture<T> cf,
+      CompletionStage<? extends T> other, Function<? super T, U> fn) {
+    StageHistograms h = histograms(stage);
+    return cf.applyToEither(other, timed(h, fn));
+  }
+
+  //Everything recorded so far, by stage name.
+  public Map<String, StageSnapshot> snapshot() {
+    Map<String, StageSnapshot> snapshot = new TreeMap<>();
+    stages.forEach((name, h) -> snapshot.put(name, h.snapshot(name)));
+    return snapshot;
+  }
+
+  private StageHistograms histograms(String stage) {
+    return stages.computeIfAbsent(stage, k -> new StageHistograms());
+  }
+
+  private static <T, U> Function<T, U> timed(StageHistograms h, Function<? super T, ? extends U> fn) {
+    return v -> {
+      long start = System.nanoTime();
+      try {
+        return fn.apply(v);
+      } finally {
+        h.execution.recordValue(System.nanoTime() - start);
+      }
+    };
+  }
+
+  private static <T, U, V> BiFunction<T, U, V> timed(StageHistograms h,
+      BiFunction<? super T, ? super U, ? extends V> fn) {
+    return (t, u) -> {
+      long start = System.nanoTime();
+      try {
+        return fn.apply(t, u);
+      } finally {
+        h.execution.recordValue(System.nanoTime() - start);
+      }
+    };
+  }
+
+  //CompletableFuture hands a stage to its executor the moment the stage's inputs are complete, so the time from
+  // execute() to the task starting is the stage's queueing delay.
+  private static Executor queued(StageHistograms h, Executor executor) {
+    return task -> {
+      long ready = System.nanoTime();
+      executor.execute(() -> {
+        h.queueing.recordValue(System.nanoTime() - ready);
+        task.run();
+      });
+    };
+  }
+
+  private static final class StageHistograms {
+
+    final Recorder queueing = new Recorder(SIGNIFICANT_DIGITS);
+    final Recorder execution = new Recorder(SIGNIFICANT_DIGITS);
+
+    private final Histogram queueingTotal = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram executionTotal = new Histogram(SIGNIFICANT_DIGITS);
+
+    synchronized StageSnapshot snapshot(String name) {
+      queueingTotal.add(queueing.getIntervalHistogram());
+      executionTotal.add(execution.getIntervalHistogram());
+      return new StageSnapshot(name, queueingTotal.copy(), executionTotal.copy());
+    }
+  }
+
+  public static final class StageSnapshot {
+
+    private final String stage;
+    private final Histogram queueing;
+    private final Histogram execution;
+
+    StageSnapshot(String stage, Histogram queueing, Histogram execution) {
+      this.stage = stage;
+      this.queueing = queueing;
+      this.execution = execution;
+    }
+
+    public String stage() {
+      return stage;
+    }
+
+    //Queueing delays in nanoseconds; empty for stages that do not run on an executor.
+    public Histogram queueing() {
+      return queueing;
+    }
+
+    //Execution times in nanoseconds.
+    public Histogram execution() {
+      return execution;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%-24s runs=%-6d exec p50=%s p99=%s max=%s | queue p50=%s p99=%s max=%s", stage,
+          execution.getTotalCount(), millis(execution, 50), millis(execution, 99), millis(execution, 100),
+          millis(queueing, 50), millis(queueing, 99), millis(queueing, 100));
+    }
+
+    private static String millis(Histogram h, double percentile) {
+      if (h.getTotalCount() == 0) {
+        return "-";
+      }
+      return String.format(Locale.ROOT, "%.3fms",
+          h.getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+}
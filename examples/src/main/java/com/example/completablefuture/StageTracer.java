@@ -0,0 +1,333 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+//Records the dependency graph of a pipeline: every stage built through the tracer, the stages it waited for, the thread
+// it ran on and when it started and ended. stages() returns the graph and toChromeTrace() renders it in the Chrome
+// trace-event format, one row per thread with an arrow from each parent to its child, for chrome://tracing or Perfetto.
+//The methods mirror the CompletableFuture methods of the same name, like StageRecorder's. A stage's parents are the
+// futures it was built on, as far as the tracer built them too. A thenCompose stage lasts until the composed stage
+// completes.
+//A tracer holds on to every future it traced, so trace one run and then drop the tracer. disabled() traces nothing:
+// each method checks one final field and hands straight to CompletableFuture.
+public final class StageTracer {
+
+  private static final StageTracer DISABLED = new StageTracer(false);
+
+  private final boolean enabled;
+  private final long origin = System.nanoTime();
+  private final AtomicInteger ids = new AtomicInteger();
+  private final ConcurrentHashMap<CompletableFuture<?>, Stage> byFuture = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Stage> stages = new ConcurrentLinkedQueue<>();
+
+  private StageTracer(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public static StageTracer enabled() {
+    return new StageTracer(true);
+  }
+
+  public static StageTracer disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public <T> CompletableFuture<T> supplyAsync(String stage, Supplier<T> supplier, Executor executor) {
+    if (!enabled) {
+      return CompletableFuture.supplyAsync(supplier, executor);
+    }
+    Stage s = newStage(stage);
+    return traced(s, CompletableFuture.supplyAsync(() -> {
+      s.start();
+      try {
+        return supplier.get();
+      } finally {
+        s.end();
+      }
+    }, executor));
+  }
+
+  public <T, U> CompletableFuture<U> thenApply(String stage, CompletableFuture<T> cf,
+      Function<? super T, ? extends U> fn) {
+    if (!enabled) {
+      return cf.thenApply(fn);
+    }
+    Stage s = newStage(stage, cf);
+    return traced(s, cf.thenApply(timed(s, fn)));
+  }
+
+  public <T, U> CompletableFuture<U> thenApplyAsync(String stage, CompletableFuture<T> cf,
+      Function<? super T, ? extends U> fn, Executor executor) {
+    if (!enabled) {
+      return cf.thenApplyAsync(fn, executor);
+    }
+    Stage s = newStage(stage, cf);
+    return traced(s, cf.thenApplyAsync(timed(s, fn), executor));
+  }
+
+  public <T, U> CompletableFuture<U> thenCompose(String stage, CompletableFuture<T> cf,
+      Function<? super T, ? extends CompletionStage<U>> fn) {
+    if (!enabled) {
+      return cf.thenCompose(fn);
+    }
+    Stage s = newStage(stage, cf);
+    return traced(s, cf.thenCompose(v -> {
+      s.start();
+      try {
+        return fn.apply(v).whenComplete((u, th) -> s.end());
+      } catch (RuntimeException | Error e) {
+        s.end();
+        throw e;
+      }
+    }));
+  }
+
+  public <T, U, V> CompletableFuture<V> thenCombine(String stage, CompletableFuture<T> cf,
+      CompletableFuture<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+    if (!enabled) {
+      return cf.thenCombine(other, fn);
+    }
+    Stage s = newStage(stage, cf, other);
+    return traced(s, cf.thenCombine(other, timed(s, fn)));
+  }
+
+  public <T, U, V> CompletableFuture<V> thenCombineAsync(String stage, CompletableFuture<T> cf,
+      CompletableFuture<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+    if (!enabled) {
+      return cf.thenCombineAsync(other, fn, executor);
+    }
+    Stage s = newStage(stage, cf, other);
+    return traced(s, cf.thenCombineAsync(other, timed(s, fn), executor));
+  }
+
+  public <T, U> CompletableFuture<U> applyToEither(String stage, CompletableFuture<T> cf,
+      CompletableFuture<? extends T> other, Function<? super T, U> fn) {
+    if (!enabled) {
+      return cf.applyToEither(other, fn);
+    }
+    Stage s = newStage(stage, true, cf, other);
+    return traced(s, cf.applyToEither(other, timed(s, fn)));
+  }
+
+  //The stages that have run so far, in the order they were built. Stages that never ran, because a parent failed or
+  // the pipeline is still going, are left out.
+  public List<Stage> stages() {
+    List<Stage> finished = new ArrayList<>();
+    for (Stage s : stages) {
+      if (s.isFinished()) {
+        finished.add(s);
+      }
+    }
+    finished.sort(Comparator.comparingInt(Stage::id));
+    return finished;
+  }
+
+  //One complete ("X") event per stage on its thread's row, plus a flow ("s"/"f") event pair per edge from the end of the
+  // parent to the start of the child. Timestamps are microseconds since the tracer was created.
+  public String toChromeTrace() {
+    List<Stage> finished = stages();
+    StringBuilder json = new StringBuilder("{\"traceEvents\":[");
+    String separator = "\n";
+    for (Stage s : finished) {
+      json.append(separator).append(String.format(Locale.ROOT,
+          "{\"name\":%s,\"cat\":\"stage\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%s,\"dur\":%s,"
+              + "\"args\":{\"id\":%d,\"thread\":%s,\"parents\":%s}}",
+          quote(s.name), s.threadId, micros(s.startNanos - origin), micros(s.endNanos - s.startNanos), s.id,
+          quote(s.threadName), s.parents.stream().map(p -> String.valueOf(p.id)).toList()));
+      separator = ",\n";
+    }
+    int flow = 0;
+    for (Stage s : finished) {
+      for (Stage p : s.parents) {
+        if (p.isFinished()) {
+          flow++;
+          json.append(separator).append(String.format(Locale.ROOT,
+              "{\"name\":\"dependency\",\"cat\":\"stage\",\"ph\":\"s\",\"id\":%d,\"pid\":1,\"tid\":%d,\"ts\":%s}",
+              flow, p.threadId, micros(p.endNanos - origin)));
+          json.append(separator).append(String.format(Locale.ROOT,
+              "{\"name\":\"dependency\",\"cat\":\"stage\",\"ph\":\"f\",\"bp\":\"e\",\"id\":%d,\"pid\":1,\"tid\":%d,"
+                  + "\"ts\":%s}", flow, s.threadId, micros(s.startNanos - origin)));
+        }
+      }
+    }
+    return json.append("\n]}\n").toString();
+  }
+
+  public void writeChromeTrace(Path file) {
+    try {
+      Files.write(file, toChromeTrace().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot write trace " + file, e);
+    }
+  }
+
+  private Stage newStage(String name, CompletableFuture<?>... parents) {
+    return newStage(name, false, parents);
+  }
+
+  private Stage newStage(String name, boolean waitsForAny, CompletableFuture<?>... parents) {
+    List<Stage> known = new ArrayList<>(parents.length);
+    for (CompletableFuture<?> parent : parents) {
+      Stage p = byFuture.get(parent);
+      if (p != null) {
+        known.add(p);
+      }
+    }
+    Stage s = new Stage(ids.incrementAndGet(), name, known, waitsForAny, origin);
+    stages.add(s);
+    return s;
+  }
+
+  //The function can run, and finish, before the future it belongs to is returned, so the stage is created first and the
+  // future attached to it afterwards.
+  private <T> CompletableFuture<T> traced(Stage s, CompletableFuture<T> cf) {
+    byFuture.put(cf, s);
+    return cf;
+  }
+
+  private static <T, U> Function<T, U> timed(Stage s, Function<? super T, ? extends U> fn) {
+    return v -> {
+      s.start();
+      try {
+        return fn.apply(v);
+      } finally {
+        s.end();
+      }
+    };
+  }
+
+  private static <T, U, V> BiFunction<T, U, V> timed(Stage s, BiFunction<? super T, ? super U, ? extends V> fn) {
+    return (t, u) -> {
+      s.start();
+      try {
+        return fn.apply(t, u);
+      } finally {
+        s.end();
+      }
+    };
+  }
+
+  private static String micros(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e3);
+  }
+
+  private static String quote(String s) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : s.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  //One node of the traced graph. Times are System.nanoTime() values; startNanos() and endNanos() are relative to the
+  // tracer's creation.
+  public static final class Stage {
+
+    private final int id;
+    private final String name;
+    private final List<Stage> parents;
+    private final boolean waitsForAny;
+    private final long origin;
+
+    private volatile String threadName;
+    private volatile long threadId;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean finished;
+
+    Stage(int id, String name, List<Stage> parents, boolean waitsForAny, long origin) {
+      this.id = id;
+      this.name = name;
+      this.parents = Collections.unmodifiableList(parents);
+      this.waitsForAny = waitsForAny;
+      this.origin = origin;
+    }
+
+    void start() {
+      Thread t = Thread.currentThread();
+      threadName = t.getName();
+      threadId = t.threadId();
+      startNanos = System.nanoTime();
+    }
+
+    void end() {
+      endNanos = System.nanoTime();
+      finished = true;
+    }
+
+    boolean isFinished() {
+      return finished;
+    }
+
+    public int id() {
+      return id;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public List<Stage> parents() {
+      return parents;
+    }
+
+    //True for applyToEither stages, which run once the first of their parents completes; the others wait for all.
+    public boolean waitsForAny() {
+      return waitsForAny;
+    }
+
+    public String thread() {
+      return threadName;
+    }
+
+    public long startNanos() {
+      return startNanos - origin;
+    }
+
+    public long endNanos() {
+      return endNanos - origin;
+    }
+
+    public long durationNanos() {
+      return endNanos - startNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "#%d %s on %s %.3f-%.3fms after %s", id, name, threadName,
+          startNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1),
+          endNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1),
+          Arrays.toString(parents.stream().mapToInt(Stage::id).toArray()));
+    }
+  }
+}